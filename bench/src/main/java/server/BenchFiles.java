@@ -0,0 +1,52 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Временные каталоги для ключей и файлов БД замеров.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+final class BenchFiles {
+
+    private BenchFiles() {}
+
+    /**
+     * @param prefix префикс имени каталога
+     * @return путь к новому временному каталогу с разделителем в конце
+     */
+    static String createTempDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix).toString() + File.separator;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param dir каталог с файлом БД
+     * @return адрес JDBC файла БД в каталоге
+     */
+    static String dbUrl(String dir) {
+        return "jdbc:sqlite:" + dir + "bench.db";
+    }
+
+    /**
+     * удаляет каталог со всем содержимым
+     * @param dir каталог
+     */
+    static void delete(String dir) {
+        try (Stream<Path> files = Files.walk(Path.of(dir))) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Ошибка удаления каталога замеров: " + e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Рассылка сообщения {@link ClientHandler#broadcastMessage(Database, PGP, String, String, boolean)}
+ * N вошедшим клиентам-заглушкам. Замеряется работа отправителя:
+ * сохранение в историю, сжатие, шифрование и постановка в очереди
+ * клиентов; запись в сокеты заменена {@link DiscardChannel}.
+ * <p>
+ * Каждому клиенту генерируется свой ключ, поэтому подготовка
+ * замера на 100 клиентов занимает десятки секунд. Общее шифрование
+ * рассылки включается настройкой {@code CHAT_SHARED_BROADCAST}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int clients;
+
+    private String dir;
+    private Database db;
+    private PGP pgp;
+    private final List<ClientHandler> handlers = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchFiles.createTempDir("broadcast_bench");
+        db = new Database(BenchFiles.dbUrl(dir));
+        pgp = new PGP();
+        pgp.defaultKeysFilepath = dir;
+
+        for (int i = 0; i < clients; i++) {
+            String username = "client_" + i;
+            pgp.generateKeyPair(username);
+            String publicKey = Files.readString(Path.of(pgp.getPublicKeyFilepath(username)));
+            handlers.add(attach(username, publicKey));
+        }
+    }
+
+    /**
+     * создает вошедшую сессию, очередь которой пишет в {@link DiscardChannel}
+     * @param username имя клиента
+     * @param publicKey публичный ключ клиента из каталога ключей {@code pgp}
+     * @return {@code ClientHandler} в комнате по умолчанию
+     */
+    private ClientHandler attach(String username, String publicKey) {
+        ClientHandler handler = new ClientHandler(db, username, publicKey, new DiscardChannel());
+        ClientHandler.sessionRegistry.registerIfAbsent(username, handler);
+        PGP.getRecipientKeyring().add(username, publicKey);
+        handler.joinRoom(RoomRegistry.DEFAULT_ROOM);
+        return handler;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (ClientHandler handler : handlers) {
+            handler.closeEverything();
+        }
+        handlers.clear();
+        db.close();
+        BenchFiles.delete(dir);
+    }
+
+    @Benchmark
+    public void broadcastMessage() {
+        ClientHandler.broadcastMessage(db, pgp, "SERVER", "client_0 - successful answer, id1", true);
+    }
+}
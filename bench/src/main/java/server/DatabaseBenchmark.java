@@ -0,0 +1,88 @@
+package server;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запросы {@link Database} на отдельном файле БД: запись сообщения в
+ * историю, чтение последней страницы истории, проверка флага и
+ * таблица рейтинга.
+ * <p>
+ * {@code getAllMessage} заменен постраничным чтением истории, поэтому
+ * замеряется {@link Database#getLastMessages(String, int, java.util.function.Consumer)}.
+ * Запись сообщения проходит через журнал с отложенной записью, поэтому
+ * при переполнении журнала замер показывает скорость фоновой записи.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    private static final int USERS = 1000;
+    private static final int FLAGS = 20;
+    private static final int MESSAGES = 10_000;
+
+    private String dir;
+    private Database db;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dir = BenchFiles.createTempDir("db_bench");
+        db = new Database(BenchFiles.dbUrl(dir));
+
+        for (int i = 1; i <= FLAGS; i++) {
+            db.addNewFlag("flag{" + i + "}", "encrypted_" + i, i * 10);
+        }
+        for (int i = 0; i < USERS; i++) {
+            String username = "user_" + i;
+            db.createUser(username, "password", username + "@example.com");
+            // разные пользователи решают разное число флагов, чтобы рейтинг не был плоским
+            for (int flag = 1; flag <= i % FLAGS; flag++) {
+                db.answerCheck(username, "flag{" + flag + "}");
+            }
+        }
+        for (int i = 0; i < MESSAGES; i++) {
+            db.addNewMessage(RoomRegistry.DEFAULT_ROOM, "18.10.26 12:00", "user_" + (i % USERS), "message number " + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+        BenchFiles.delete(dir);
+    }
+
+    @Benchmark
+    public void addNewMessage() {
+        db.addNewMessage(RoomRegistry.DEFAULT_ROOM, "18.10.26 12:00", "user_1", "benchmark message");
+    }
+
+    @Benchmark
+    public long getLastMessages(Blackhole blackhole) {
+        return db.getLastMessages(RoomRegistry.DEFAULT_ROOM, ServerConfig.HISTORY_PAGE_SIZE, blackhole::consume);
+    }
+
+    @Benchmark
+    public int answerCheckWrongFlag() {
+        return db.answerCheck("user_1", "flag{wrong}");
+    }
+
+    @Benchmark
+    public int answerCheckAlreadySolved() {
+        return db.answerCheck("user_19", "flag{1}");
+    }
+
+    @Benchmark
+    public ArrayList<String[]> getScoreboard() {
+        return db.getScoreboard();
+    }
+}
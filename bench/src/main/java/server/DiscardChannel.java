@@ -0,0 +1,37 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Канал клиента-заглушки: записанные сообщения отбрасываются и
+ * только подсчитываются.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class DiscardChannel implements MessageChannel {
+
+    private final LongAdder writtenCount = new LongAdder();
+
+    @Override
+    public String read() throws IOException {
+        throw new EOFException("Клиент-заглушка не присылает сообщений");
+    }
+
+    @Override
+    public void write(String message) {
+        writtenCount.increment();
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    public long getWrittenCount() {
+        return writtenCount.sum();
+    }
+}
@@ -0,0 +1,68 @@
+package server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отправка страницы истории при входе: шифрование каждого сообщения
+ * отдельно через {@link PGP#encryptString(String, String)} и шифрование
+ * одного кадра {@link HistoryBundle} со всей страницей.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryReplayBenchmark {
+
+    private static final String USERNAME = "bench";
+
+    @Param({"100", "1000"})
+    public int pageSize;
+
+    private String keysDir;
+    private PGP pgp;
+    private List<String> page;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keysDir = BenchFiles.createTempDir("history_bench");
+        pgp = new PGP();
+        pgp.defaultKeysFilepath = keysDir;
+        pgp.generateKeyPair(USERNAME);
+
+        page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            page.add("18.10.26 12:00|user" + (i % 50) + "|message number " + i + " in the chat history");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchFiles.delete(keysDir);
+    }
+
+    /**
+     * @return суммарная длина зашифрованных сообщений
+     */
+    @Benchmark
+    public long perMessage() {
+        long bytes = 0;
+        for (String message : page) {
+            bytes += pgp.encryptString(message, USERNAME).length();
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public String bundle() {
+        return pgp.encryptString(HistoryBundle.PREFIX + HistoryBundle.encode(page), USERNAME);
+    }
+}
@@ -0,0 +1,43 @@
+package server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Генерация пары ключей RSA 2048 через {@link PGP#generateKeyPair(String)}.
+ * Одна генерация занимает сотни миллисекунд, поэтому каждая итерация
+ * замеряется однократно.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class KeyGenerationBenchmark {
+
+    private String keysDir;
+    private PGP pgp;
+    private int keyNumber;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keysDir = BenchFiles.createTempDir("keygen_bench");
+        pgp = new PGP();
+        pgp.defaultKeysFilepath = keysDir;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchFiles.delete(keysDir);
+    }
+
+    @Benchmark
+    public void generateKeyPair() {
+        pgp.generateKeyPair("bench_" + keyNumber++);
+    }
+}
@@ -0,0 +1,72 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма задержек с логарифмическими корзинами: соседние корзины
+ * отличаются на 5%, поэтому перцентили вычисляются с такой же
+ * точностью при постоянном объеме памяти и без блокировок.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class LatencyHistogram {
+
+    private static final double BASE = 1.05;
+    private static final double LOG_BASE = Math.log(BASE);
+    // 1.05^450 мкс больше суток
+    private static final int BUCKETS = 450;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * @param nanos задержка, нс
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = (int) Math.min(BUCKETS - 1, Math.ceil(Math.log(micros + 1) / LOG_BASE));
+        counts.incrementAndGet(bucket);
+        count.increment();
+        totalMicros.add(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @param percentile перцентиль от 0 до 100
+     * @return верхняя граница корзины, в которую попадает перцентиль, мкс
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min((long) Math.pow(BASE, i) - 1, maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    @Override
+    public String toString() {
+        long total = getCount();
+        return "count=" + total +
+                ", avgMs=" + (total == 0 ? 0 : String.format("%.2f", totalMicros.sum() / 1000.0 / total)) +
+                ", p50Ms=" + String.format("%.2f", getPercentileMicros(50) / 1000.0) +
+                ", p99Ms=" + String.format("%.2f", getPercentileMicros(99) / 1000.0) +
+                ", maxMs=" + String.format("%.2f", maxMicros.get() / 1000.0);
+    }
+}
@@ -0,0 +1,391 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Консольный генератор нагрузки для оценки емкости сервера.
+ * <p>
+ * Каждая сессия выполняет тот же обмен, что и клиент с интерфейсом:
+ * кадровый протокол, обмен ключами, имя, зашифрованное ключом сервера,
+ * и {@code sign_in}. Затем сессия с заданным средним временем
+ * обдумывания отправляет сообщения чата, {@code answer_check} с
+ * неверным флагом и {@code !rating} в заданной пропорции.
+ * <p>
+ * Сообщение чата несет время отправки, поэтому задержка от отправки
+ * до доставки измеряется у каждого получателя. Все сессии работают в
+ * одном процессе, так что часы у отправителя и получателя общие. Для
+ * ответов на команды измеряется задержка от запроса до ответа.
+ * Сообщения чата рассылаются, только если на сервере включен
+ * {@code CHAT_PUBLIC_CHAT}.
+ * <p>
+ * Пользователи создаются заранее режимом {@code --seed}. Ключи сессий
+ * генерируются один раз и хранятся в {@code --keys-dir}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class LoadGenerator {
+
+    private static final String CHAT_MARKER = "load";
+
+    private final String host;
+    private final int port;
+    private final int sessions;
+    private final long rampMs;
+    private final long durationMs;
+    private final long thinkMs;
+    private final int chatWeight;
+    private final int answerWeight;
+    private final int ratingWeight;
+    private final String keysDir;
+    private final String userPrefix;
+    private final String password;
+    private final long serverPid;
+
+    private final LatencyHistogram signInLatency = new LatencyHistogram();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram replyLatency = new LatencyHistogram();
+    private final LongAdder connectedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder chatSent = new LongAdder();
+    private final LongAdder answersSent = new LongAdder();
+    private final LongAdder ratingsSent = new LongAdder();
+    private final LongAdder receivedCount = new LongAdder();
+    private final AtomicLong maxServerRssKb = new AtomicLong();
+    private final Map<String, String> serverKeyNames = new HashMap<>();
+    private volatile boolean running = true;
+
+    private LoadGenerator(Map<String, String> options) {
+        host = options.getOrDefault("host", "localhost");
+        port = Integer.parseInt(options.getOrDefault("port", "9090"));
+        sessions = Integer.parseInt(options.getOrDefault("sessions", "100"));
+        rampMs = Long.parseLong(options.getOrDefault("ramp-ms", "10"));
+        durationMs = Long.parseLong(options.getOrDefault("duration-s", "60")) * 1000;
+        thinkMs = Long.parseLong(options.getOrDefault("think-ms", "1000"));
+        keysDir = options.getOrDefault("keys-dir", "target/load-keys") + File.separator;
+        userPrefix = options.getOrDefault("user-prefix", "load_");
+        password = options.getOrDefault("password", "load");
+        serverPid = Long.parseLong(options.getOrDefault("server-pid", "0"));
+
+        // пропорция вида chat=70,answer=20,rating=10
+        Map<String, Integer> mix = new HashMap<>();
+        for (String part : options.getOrDefault("mix", "chat=70,answer=20,rating=10").split(",")) {
+            String[] pair = part.split("=");
+            mix.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+        }
+        chatWeight = mix.getOrDefault("chat", 0);
+        answerWeight = mix.getOrDefault("answer", 0);
+        ratingWeight = mix.getOrDefault("rating", 0);
+        if (chatWeight + answerWeight + ratingWeight <= 0) {
+            throw new IllegalArgumentException("Пустая пропорция сообщений: " + options.get("mix"));
+        }
+    }
+
+    /**
+     * Параметры вида {@code --name=value}:
+     * {@code host}, {@code port}, {@code sessions}, {@code ramp-ms},
+     * {@code duration-s}, {@code think-ms}, {@code mix}, {@code keys-dir},
+     * {@code user-prefix}, {@code password}, {@code server-pid}.
+     * С параметром {@code --seed=<JDBC URL>} создаются пользователи
+     * для сессий, после чего программа завершается.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Ожидается параметр вида --name=value: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        LoadGenerator generator = new LoadGenerator(options);
+        if (options.containsKey("seed")) {
+            generator.seed(options.get("seed"));
+        } else {
+            generator.run();
+        }
+    }
+
+    /**
+     * создает пользователей сессий в БД сервера
+     * @param dbUrl адрес JDBC файла БД
+     */
+    private void seed(String dbUrl) {
+        Database db = new Database(dbUrl);
+        int created = 0;
+        for (int i = 0; i < sessions; i++) {
+            String username = userPrefix + i;
+            if (db.userNotRegistered(username)) {
+                db.createUser(username, password, username + "@example.com");
+                created++;
+            }
+        }
+        db.close();
+        System.out.println("Создано пользователей: " + created);
+    }
+
+    private void run() throws InterruptedException, IOException {
+        Files.createDirectories(Path.of(keysDir));
+        generateMissingKeys();
+
+        Thread memorySampler = Thread.ofVirtual().start(this::sampleServerMemory);
+        CountDownLatch finished = new CountDownLatch(sessions);
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            String username = userPrefix + i;
+            Thread.ofVirtual().name("load-" + username).start(() -> {
+                try {
+                    runSession(username);
+                } finally {
+                    finished.countDown();
+                }
+            });
+            if (rampMs > 0) {
+                Thread.sleep(rampMs);
+            }
+        }
+
+        long reportIntervalMs = 5000;
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(Math.min(reportIntervalMs, Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+            System.out.println(progress(start));
+        }
+        running = false;
+        finished.await(30, TimeUnit.SECONDS);
+        memorySampler.interrupt();
+
+        System.out.println();
+        System.out.println(report(start));
+    }
+
+    /**
+     * генерирует ключи сессий, которых еще нет в каталоге ключей
+     */
+    private void generateMissingKeys() throws InterruptedException {
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            if (!new File(keysDir + "PrivateKey_" + userPrefix + i + ".pgp").exists()) {
+                missing.add(userPrefix + i);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        System.out.println("Генерация ключей: " + missing.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        for (String username : missing) {
+            executor.execute(() -> {
+                PGP pgp = new PGP();
+                pgp.defaultKeysFilepath = keysDir;
+                pgp.generateKeyPair(username);
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.DAYS);
+    }
+
+    private void runSession(String username) {
+        PGP pgp = new PGP();
+        pgp.defaultKeysFilepath = keysDir;
+        ConcurrentLinkedQueue<Long> pendingReplies = new ConcurrentLinkedQueue<>();
+        CountDownLatch signedIn = new CountDownLatch(1);
+
+        try (Socket socket = new Socket(host, port);
+             FramedChannel channel = new FramedChannel(socket.getInputStream(), socket.getOutputStream(),
+                     ServerConfig.MAX_FRAME_BYTES)) {
+            long connectStart = System.nanoTime();
+
+            channel.write(Files.readString(Path.of(pgp.getPublicKeyFilepath(username))));
+            channel.flush();
+            String serverKeyName = saveServerKey(channel.read());
+
+            channel.write(pgp.encryptString(username, serverKeyName));
+            channel.write(pgp.encryptString("sign_in|" + username + "|" + password, serverKeyName));
+            channel.flush();
+
+            Thread reader = Thread.ofVirtual().name("load-reader-" + username).start(() ->
+                    readLoop(channel, pgp, username, connectStart, signedIn, pendingReplies));
+
+            if (!signedIn.await(30, TimeUnit.SECONDS) || !reader.isAlive()) {
+                failedCount.increment();
+                return;
+            }
+            connectedCount.increment();
+
+            sendLoop(channel, pgp, serverKeyName, pendingReplies);
+
+            // время на доставку последних сообщений
+            Thread.sleep(2000);
+        } catch (IOException | RuntimeException e) {
+            failedCount.increment();
+            System.err.println("Ошибка сессии " + username + ": " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendLoop(FramedChannel channel, PGP pgp, String serverKeyName,
+                          ConcurrentLinkedQueue<Long> pendingReplies) throws IOException, InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int totalWeight = chatWeight + answerWeight + ratingWeight;
+
+        while (running) {
+            // экспоненциальное время обдумывания дает пуассоновский поток сообщений
+            Thread.sleep((long) (-thinkMs * Math.log(1 - random.nextDouble())));
+            if (!running) {
+                break;
+            }
+
+            int choice = random.nextInt(totalWeight);
+            String message;
+            if (choice < chatWeight) {
+                message = CHAT_MARKER + "|" + System.nanoTime();
+                chatSent.increment();
+            } else if (choice < chatWeight + answerWeight) {
+                message = "answer_check|flag{load}";
+                pendingReplies.add(System.nanoTime());
+                answersSent.increment();
+            } else {
+                message = "!rating";
+                pendingReplies.add(System.nanoTime());
+                ratingsSent.increment();
+            }
+            channel.write(pgp.encryptString(message, serverKeyName));
+            channel.flush();
+        }
+    }
+
+    private void readLoop(FramedChannel channel, PGP pgp, String username, long connectStart,
+                          CountDownLatch signedIn, ConcurrentLinkedQueue<Long> pendingReplies) {
+        // сообщения истории, отправленные до входа, не учитываются в задержке доставки
+        boolean historyReceived = false;
+        try {
+            while (true) {
+                String message = pgp.decryptString(channel.read(), username);
+                long now = System.nanoTime();
+                receivedCount.increment();
+                if (message == null) {
+                    continue;
+                }
+
+                if (message.equals("successful_sign_in")) {
+                    signInLatency.record(now - connectStart);
+                    signedIn.countDown();
+                } else if (message.equals("failed_sign_in")) {
+                    System.err.println("Вход отклонен: " + username);
+                    return;
+                } else if (message.startsWith("|SERVER|")) {
+                    // ответы на команды приходят в порядке запросов
+                    Long sentAt = pendingReplies.poll();
+                    if (sentAt != null) {
+                        replyLatency.record(now - sentAt);
+                    }
+                } else if (message.startsWith("history_cursor|")) {
+                    historyReceived = true;
+                } else if (historyReceived) {
+                    recordDelivery(message, now);
+                }
+            }
+        } catch (IOException e) {
+            // сессия закрыта
+        }
+    }
+
+    /**
+     * учитывает задержку доставки сообщения чата вида
+     * {@code date|sender|load|sendNanos}
+     */
+    private void recordDelivery(String message, long now) {
+        int senderEnd = message.indexOf('|', message.indexOf('|') + 1);
+        if (senderEnd < 0 || !message.startsWith(CHAT_MARKER + "|", senderEnd + 1)) {
+            return;
+        }
+        try {
+            long sentAt = Long.parseLong(message.substring(senderEnd + CHAT_MARKER.length() + 2));
+            if (now >= sentAt) {
+                deliveryLatency.record(now - sentAt);
+            }
+        } catch (NumberFormatException ignored) {}
+    }
+
+    /**
+     * сохраняет ключ сервера в каталог ключей. При ротации ключей разные
+     * сессии могут получить разные ключи, поэтому имя зависит от ключа.
+     * @param serverPublicKey публичный ключ сервера
+     * @return имя, под которым ключ доступен {@link PGP}
+     */
+    private synchronized String saveServerKey(String serverPublicKey) throws IOException {
+        String name = serverKeyNames.get(serverPublicKey);
+        if (name == null) {
+            name = "server_" + Integer.toHexString(serverPublicKey.hashCode());
+            Files.writeString(Path.of(keysDir + "PublicKey_" + name + ".pgp"), serverPublicKey);
+            serverKeyNames.put(serverPublicKey, name);
+        }
+        return name;
+    }
+
+    /**
+     * раз в секунду считывает резидентную память процесса сервера из
+     * {@code /proc}, если указан {@code --server-pid}
+     */
+    private void sampleServerMemory() {
+        if (serverPid <= 0) {
+            return;
+        }
+        Path status = Path.of("/proc", Long.toString(serverPid), "status");
+        try {
+            while (true) {
+                for (String line : Files.readAllLines(status)) {
+                    if (line.startsWith("VmRSS:")) {
+                        long rssKb = Long.parseLong(line.replaceAll("\\D", ""));
+                        maxServerRssKb.accumulateAndGet(rssKb, Math::max);
+                    }
+                }
+                Thread.sleep(1000);
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения памяти сервера: " + e);
+        } catch (InterruptedException ignored) {}
+    }
+
+    private String progress(long start) {
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        return seconds + "s: sessions=" + connectedCount.sum() + ", failed=" + failedCount.sum() +
+                ", sent=" + (chatSent.sum() + answersSent.sum() + ratingsSent.sum()) +
+                ", received=" + receivedCount.sum() +
+                ", delivery p99Ms=" + String.format("%.2f", deliveryLatency.getPercentileMicros(99) / 1000.0);
+    }
+
+    private String report(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long sent = chatSent.sum() + answersSent.sum() + ratingsSent.sum();
+        return "sessions: requested=" + sessions + ", signedIn=" + connectedCount.sum() +
+                ", failed=" + failedCount.sum() + "\n" +
+                "sent: chat=" + chatSent.sum() + ", answer_check=" + answersSent.sum() +
+                ", rating=" + ratingsSent.sum() + "\n" +
+                "throughput: sent/s=" + String.format("%.1f", sent / seconds) +
+                ", received/s=" + String.format("%.1f", receivedCount.sum() / seconds) + "\n" +
+                "sign in:  " + signInLatency + "\n" +
+                "delivery: " + deliveryLatency + "\n" +
+                "reply:    " + replyLatency + "\n" +
+                "server max RSS MB: " + (serverPid > 0 ? maxServerRssKb.get() / 1024 : "-");
+    }
+}
@@ -0,0 +1,63 @@
+package server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Шифрование и расшифровка сообщения ключом клиента через
+ * {@link PGP#encryptString(String, String)} и
+ * {@link PGP#decryptString(String, String)}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PgpBenchmark {
+
+    private static final String USERNAME = "bench";
+
+    @Param({"64", "1024", "16384"})
+    public int messageSize;
+
+    private String keysDir;
+    private PGP pgp;
+    private String message;
+    private String encryptedMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keysDir = BenchFiles.createTempDir("pgp_bench");
+        pgp = new PGP();
+        pgp.defaultKeysFilepath = keysDir;
+        pgp.generateKeyPair(USERNAME);
+
+        StringBuilder builder = new StringBuilder(messageSize);
+        for (int i = 0; i < messageSize; i++) {
+            builder.append((char) ('a' + ThreadLocalRandom.current().nextInt(26)));
+        }
+        message = builder.toString();
+        encryptedMessage = pgp.encryptString(message, USERNAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchFiles.delete(keysDir);
+    }
+
+    @Benchmark
+    public String encryptString() {
+        return pgp.encryptString(message, USERNAME);
+    }
+
+    @Benchmark
+    public String decryptString() {
+        return pgp.decryptString(encryptedMessage, USERNAME);
+    }
+}
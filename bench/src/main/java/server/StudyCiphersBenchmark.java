@@ -0,0 +1,74 @@
+package server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Учебные шифры {@link StudyCiphers}, которыми шифруются флаги.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StudyCiphersBenchmark {
+
+    @Param({"16", "256"})
+    public int messageSize;
+
+    private String message;
+    private String ruMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder en = new StringBuilder(messageSize);
+        StringBuilder ru = new StringBuilder(messageSize);
+        for (int i = 0; i < messageSize; i++) {
+            en.append((char) ('a' + ThreadLocalRandom.current().nextInt(26)));
+            ru.append((char) ('а' + ThreadLocalRandom.current().nextInt(32)));
+        }
+        message = en.toString();
+        ruMessage = ru.toString();
+    }
+
+    @Benchmark
+    public String cesarEncrypt() {
+        return StudyCiphers.cesarEncrypt(message, 3);
+    }
+
+    @Benchmark
+    public String scytaleEncrypt() {
+        return StudyCiphers.scytaleEncrypt(message, 3);
+    }
+
+    @Benchmark
+    public String a1z26Encrypt() {
+        return StudyCiphers.a1z26Encrypt(message);
+    }
+
+    @Benchmark
+    public String base64Encrypt() {
+        return StudyCiphers.base64Encrypt(message);
+    }
+
+    @Benchmark
+    public String base32Encrypt() {
+        return StudyCiphers.base32Encrypt(message);
+    }
+
+    @Benchmark
+    public String viginereEnEncrypt() {
+        return StudyCiphers.viginereEnEncrypt(message, "key");
+    }
+
+    @Benchmark
+    public String viginereRuEncrypt() {
+        return StudyCiphers.viginereRuEncrypt(ruMessage, "ключ");
+    }
+}
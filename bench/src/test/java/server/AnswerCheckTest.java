@@ -0,0 +1,111 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Параллельная проверка одного флага через
+ * {@link Database#answerCheck(String, String)}: очки начисляются ровно
+ * один раз, остальные попытки получают {@code -id}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+class AnswerCheckTest {
+
+    private static final int THREADS = 32;
+    private static final int COST = 100;
+    private static final String FLAG = "flag{race}";
+
+    private String dir;
+    private Database db;
+
+    @BeforeEach
+    void setUp() {
+        dir = BenchFiles.createTempDir("answer_check_test");
+        db = new Database(BenchFiles.dbUrl(dir));
+        db.addNewFlag(FLAG, "encrypted", COST);
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.close();
+        BenchFiles.delete(dir);
+    }
+
+    @Test
+    void sameFlagInParallelScoresOnce() throws Exception {
+        db.createUser("racer", "password", "racer@chat.local");
+
+        List<Integer> results = submitInParallel(i -> db.answerCheck("racer", FLAG));
+
+        int flagId = 0;
+        for (int result : results) {
+            if (result > 0) {
+                assertEquals(0, flagId, "only one attempt may score");
+                flagId = result;
+            }
+        }
+        assertTrue(flagId > 0, "one attempt must score");
+        for (int result : results) {
+            assertTrue(result == flagId || result == -flagId, "unexpected result " + result);
+        }
+        assertEquals(COST, db.getScore("racer"));
+    }
+
+    @Test
+    void differentUsersInParallelEachScore() throws Exception {
+        for (int i = 0; i < THREADS; i++) {
+            db.createUser("user_" + i, "password", "user_" + i + "@chat.local");
+        }
+
+        List<Integer> results = submitInParallel(i -> db.answerCheck("user_" + i, FLAG));
+
+        for (int i = 0; i < THREADS; i++) {
+            assertTrue(results.get(i) > 0, "user_" + i + " must score");
+            assertEquals(COST, db.getScore("user_" + i));
+        }
+    }
+
+    /**
+     * запускает вызовы одновременно из {@link #THREADS} потоков
+     * @param call вызов, получающий номер потока
+     * @return результаты в порядке номеров потоков
+     */
+    private static List<Integer> submitInParallel(IntCall call) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return call.apply(index);
+                }));
+            }
+            start.countDown();
+
+            List<Integer> results = new ArrayList<>();
+            for (Future<Integer> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IntCall {
+        int apply(int index);
+    }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Чтение истории из {@link Database}, когда часть сообщений еще не
+ * записана {@link MessageJournal}: результат совпадает с тем, что
+ * вернуло бы чтение после записи журнала, без повторов.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+class HistoryJournalTest {
+
+    private static final String ROOM = RoomRegistry.DEFAULT_ROOM;
+
+    private String dir;
+    private Database db;
+
+    @BeforeEach
+    void setUp() {
+        dir = BenchFiles.createTempDir("history_journal_test");
+        db = new Database(BenchFiles.dbUrl(dir));
+
+        // закрытие записывает журнал, эти сообщения получают id 1 и 2
+        db.addNewMessage(ROOM, "date", "alice", "written 1");
+        db.addNewMessage(ROOM, "date", "alice", "written 2");
+        db.close();
+        db = new Database(BenchFiles.dbUrl(dir));
+
+        db.addNewMessage(ROOM, "date", "bob", "pending 1");
+        db.addNewMessage("other", "date", "bob", "other room");
+        db.addNewMessage(RoomRegistry.GLOBAL_ROOM, "date", "SERVER", "pending 2");
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.close();
+        BenchFiles.delete(dir);
+    }
+
+    @Test
+    void lastPageIncludesPendingMessages() {
+        List<String> page = new ArrayList<>();
+        long oldestId = db.getLastMessages(ROOM, 3, message -> page.add(message[2]));
+
+        assertEquals(List.of("written 2", "pending 1", "pending 2"), page);
+        assertEquals(2, oldestId);
+    }
+
+    @Test
+    void pageOfPendingMessagesPointsAtWrittenHistory() {
+        List<String> page = new ArrayList<>();
+        long oldestId = db.getLastMessages(ROOM, 2, message -> page.add(message[2]));
+
+        assertEquals(List.of("pending 1", "pending 2"), page);
+        // следующая страница начинается с последнего записанного сообщения
+        List<String> older = new ArrayList<>();
+        db.getMessagesBefore(ROOM, oldestId, 2, message -> older.add(message[2]));
+        assertEquals(List.of("written 1", "written 2"), older);
+    }
+
+    @Test
+    void deltaIncludesPendingMessages() {
+        List<String> delta = new ArrayList<>();
+        long newestId = db.getMessagesAfter(ROOM, 1, 10, message -> delta.add(message[2]));
+
+        assertEquals(List.of("written 2", "pending 1", "pending 2"), delta);
+        assertEquals(2, newestId);
+    }
+}
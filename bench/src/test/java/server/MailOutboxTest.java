@@ -0,0 +1,112 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.MessagingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Проверки {@link MailOutbox} на {@link SmtpStub}: переиспользование
+ * SMTP соединения, повторные попытки и устойчивость потока отправки.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+class MailOutboxTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private SmtpStub smtp;
+    private MailOutbox outbox;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        smtp = new SmtpStub();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (outbox != null) {
+            outbox.close();
+        }
+        smtp.close();
+    }
+
+    @Test
+    void reusesOneTransportForAllMessages() throws Exception {
+        outbox = new MailOutbox(smtp::newSender, 16, 1, 3, 50);
+
+        List<MailOutbox.Ticket> tickets = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            tickets.add(outbox.submit("user" + i + "@chat.local", "subject", "text " + i));
+        }
+        for (MailOutbox.Ticket ticket : tickets) {
+            assertEquals(MailOutbox.Status.SENT, awaitDone(ticket));
+            assertEquals(1, ticket.getAttempts());
+        }
+        assertEquals(5, smtp.getAccepted());
+        assertEquals(1, smtp.getConnections());
+    }
+
+    @Test
+    void retriesAfterTemporaryFailure() throws Exception {
+        outbox = new MailOutbox(smtp::newSender, 16, 1, 3, 50);
+        smtp.failNext(2);
+
+        MailOutbox.Ticket ticket = outbox.submit("user@chat.local", "subject", "text");
+        assertEquals(MailOutbox.Status.SENT, awaitDone(ticket));
+        assertEquals(3, ticket.getAttempts());
+        assertEquals(1, smtp.getAccepted());
+    }
+
+    @Test
+    void failsAfterMaxAttempts() throws Exception {
+        outbox = new MailOutbox(smtp::newSender, 16, 1, 2, 50);
+        smtp.failNext(2);
+
+        MailOutbox.Ticket ticket = outbox.submit("user@chat.local", "subject", "text");
+        assertEquals(MailOutbox.Status.FAILED, awaitDone(ticket));
+        assertEquals(2, ticket.getAttempts());
+        assertEquals(0, smtp.getAccepted());
+    }
+
+    @Test
+    void runtimeExceptionDoesNotStopWorker() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        outbox = new MailOutbox(() -> new EmailSender("localhost", smtp.getPort(), false, "server@chat.local", null) {
+            @Override
+            public void sendMessage(String emailAddress, String subj, String text) throws MessagingException {
+                if (calls.getAndIncrement() == 0) {
+                    throw new IllegalStateException("broken transport");
+                }
+                super.sendMessage(emailAddress, subj, text);
+            }
+        }, 16, 1, 3, 50);
+
+        MailOutbox.Ticket first = outbox.submit("first@chat.local", "subject", "text");
+        assertEquals(MailOutbox.Status.SENT, awaitDone(first));
+        assertEquals(2, first.getAttempts());
+
+        MailOutbox.Ticket second = outbox.submit("second@chat.local", "subject", "text");
+        assertEquals(MailOutbox.Status.SENT, awaitDone(second));
+        assertEquals(2, smtp.getAccepted());
+    }
+
+    private static MailOutbox.Status awaitDone(MailOutbox.Ticket ticket) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            MailOutbox.Status status = ticket.getStatus();
+            if (status == MailOutbox.Status.SENT || status == MailOutbox.Status.FAILED) {
+                return status;
+            }
+            Thread.sleep(10);
+        }
+        return ticket.getStatus();
+    }
+}
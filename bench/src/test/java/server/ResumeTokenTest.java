@@ -0,0 +1,92 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Токены возобновления сессии в {@link Database}: срок токена,
+ * выставленный при входе, истекает во время долгой сессии, но токен
+ * не должен удаляться, пока сессия открыта.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+class ResumeTokenTest {
+
+    private static final long TTL_MS = 600_000;
+
+    private String dir;
+    private Database db;
+
+    @BeforeEach
+    void setUp() {
+        dir = BenchFiles.createTempDir("resume_token_test");
+        db = new Database(BenchFiles.dbUrl(dir));
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.close();
+        BenchFiles.delete(dir);
+    }
+
+    @Test
+    void tokenOfLiveSessionSurvivesPurgeAfterTtl() {
+        long now = System.currentTimeMillis();
+
+        // вход с токеном; срок, выставленный при входе, уже прошел
+        assertTrue(db.tryClaimSession("alice", "node-a", "session-1"));
+        db.createResumeToken("alice-token", "alice", RoomRegistry.DEFAULT_ROOM, 7, now - 1);
+
+        // вход другого пользователя очищает истекшие токены
+        assertTrue(db.tryClaimSession("bob", "node-a", "session-2"));
+        db.createResumeToken("bob-token", "bob", RoomRegistry.DEFAULT_ROOM, 0, now + TTL_MS);
+
+        // отключение: токен продлевается, затем сессия освобождается
+        db.updateResumeToken("alice-token", RoomRegistry.DEFAULT_ROOM, 9, now + TTL_MS);
+        db.releaseSession("alice", "session-1");
+
+        String[] session = db.consumeResumeToken("alice-token", "alice");
+        assertNotNull(session);
+        assertEquals(RoomRegistry.DEFAULT_ROOM, session[0]);
+        assertEquals("9", session[1]);
+    }
+
+    @Test
+    void refusedClaimLeavesTokenUsable() {
+        long now = System.currentTimeMillis();
+        db.createResumeToken("alice-token", "alice", RoomRegistry.DEFAULT_ROOM, 7, now + TTL_MS);
+
+        // пользователь еще вошел на другом работающем узле
+        assertTrue(db.tryAcquireLease(Cluster.NODE_LEASE_PREFIX + "node-b", "node-b", TTL_MS));
+        assertTrue(db.tryClaimSession("alice", "node-b", "session-1"));
+
+        assertTrue(db.isValidResumeToken("alice-token", "alice"));
+        assertFalse(db.tryClaimSession("alice", "node-a", "session-2"));
+
+        // после выхода на другом узле тот же токен возобновляет сессию
+        db.releaseSession("alice", "session-1");
+        assertTrue(db.tryClaimSession("alice", "node-a", "session-2"));
+        String[] session = db.consumeResumeToken("alice-token", "alice");
+        assertNotNull(session);
+        assertEquals("7", session[1]);
+        assertFalse(db.isValidResumeToken("alice-token", "alice"));
+    }
+
+    @Test
+    void expiredTokenOfClosedSessionIsPurged() {
+        long now = System.currentTimeMillis();
+        db.createResumeToken("alice-token", "alice", RoomRegistry.DEFAULT_ROOM, 7, now - 1);
+        db.createResumeToken("bob-token", "bob", RoomRegistry.DEFAULT_ROOM, 0, now + TTL_MS);
+
+        // токен не продлевается, так как удален очисткой
+        db.updateResumeToken("alice-token", RoomRegistry.DEFAULT_ROOM, 9, now + TTL_MS);
+        assertEquals(null, db.consumeResumeToken("alice-token", "alice"));
+    }
+}
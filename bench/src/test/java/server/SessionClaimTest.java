@@ -0,0 +1,59 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Владение сессией в {@link Database#tryClaimSession(String, String, String)}:
+ * пользователя другого узла нельзя захватить, пока тот узел продлевает
+ * аренду, и можно после ее истечения.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+class SessionClaimTest {
+
+    private static final long LEASE_MS = 200;
+
+    private String dir;
+    private Database db;
+
+    @BeforeEach
+    void setUp() {
+        dir = BenchFiles.createTempDir("session_claim_test");
+        db = new Database(BenchFiles.dbUrl(dir));
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.close();
+        BenchFiles.delete(dir);
+    }
+
+    @Test
+    void claimOfLiveNodeIsRefused() {
+        assertTrue(db.tryAcquireLease(Cluster.NODE_LEASE_PREFIX + "node-a", "node-a", 60_000));
+        assertTrue(db.tryClaimSession("alice", "node-a", "session-1"));
+
+        assertFalse(db.tryClaimSession("alice", "node-b", "session-2"));
+        // свой узел перехватывает сессию
+        assertTrue(db.tryClaimSession("alice", "node-a", "session-3"));
+    }
+
+    @Test
+    void claimOfExpiredNodeIsTakenOver() throws InterruptedException {
+        assertTrue(db.tryAcquireLease(Cluster.NODE_LEASE_PREFIX + "node-a", "node-a", LEASE_MS));
+        assertTrue(db.tryClaimSession("alice", "node-a", "session-1"));
+        assertFalse(db.tryClaimSession("alice", "node-b", "session-2"));
+
+        Thread.sleep(LEASE_MS * 2);
+        assertTrue(db.tryAcquireLease(Cluster.NODE_LEASE_PREFIX + "node-b", "node-b", 60_000));
+        assertTrue(db.tryClaimSession("alice", "node-b", "session-2"));
+        // прежний узел больше не владеет сессией
+        assertFalse(db.tryClaimSession("alice", "node-a", "session-3"));
+    }
+}
@@ -0,0 +1,121 @@
+package server;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SMTP сервер в том же процессе для проверки {@link EmailSender} и
+ * {@link MailOutbox} без настоящего почтового сервера.
+ * <p>
+ * Принимает любые команды без авторизации и TLS, считает подключения и
+ * принятые письма и может отклонить заданное число писем временной
+ * ошибкой {@code 451}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+final class SmtpStub implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
+    SmtpStub() throws IOException {
+        serverSocket = new ServerSocket(0);
+        Thread.ofVirtual().name("smtp-stub").start(this::acceptLoop);
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return число SMTP подключений с момента запуска
+     */
+    int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return число принятых писем
+     */
+    int getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * отклоняет следующие {@code count} писем ответом {@code 451}
+     * @param count число писем
+     */
+    void failNext(int count) {
+        failuresLeft.set(count);
+    }
+
+    /**
+     * @return {@link EmailSender} без авторизации, подключающийся к этому серверу
+     */
+    EmailSender newSender() {
+        return new EmailSender("localhost", getPort(), false, "server@chat.local", null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                Thread.ofVirtual().start(() -> serve(socket));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+            reply(out, "220 smtp-stub");
+            boolean data = false;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (data) {
+                    if (line.equals(".")) {
+                        data = false;
+                        if (failuresLeft.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+                            reply(out, "451 try again later");
+                        } else {
+                            accepted.incrementAndGet();
+                            reply(out, "250 accepted");
+                        }
+                    }
+                    continue;
+                }
+                String command = line.toUpperCase();
+                if (command.startsWith("DATA")) {
+                    data = true;
+                    reply(out, "354 end with <CRLF>.<CRLF>");
+                } else if (command.startsWith("QUIT")) {
+                    reply(out, "221 bye");
+                    return;
+                } else {
+                    reply(out, "250 ok");
+                }
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void reply(Writer out, String line) throws IOException {
+        out.write(line + "\r\n");
+        out.flush();
+    }
+}
@@ -0,0 +1,33 @@
+package server;
+
+/**
+ * Команда проверки флага {@code answer_check|flag}. Об успешном ответе
+ * сообщается всем клиентам, об ошибке - только отправителю.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class AnswerCheckCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "answer_check";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        String flag = request.requireField(0);
+        String clientUsername = client.getClientUsername();
+        int flafId = client.getDb().answerCheck(clientUsername, flag);
+
+        if (flafId > 0) {
+            ClientHandler.cluster.publishScore(clientUsername);
+            client.broadcastMessage(clientUsername + " - successful answer, id" + flafId, true);
+        } else if (flafId < 0) {
+            client.sendMessage("|SERVER|flag already solved, id" + (-flafId));
+        } else {
+            client.sendMessage("|SERVER|failed answer check, id" + flafId);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,88 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Соединение с БД с кэшем подготовленных запросов.
+ * <p>
+ * Каждый запрос подготавливается один раз на соединение и затем
+ * переиспользуется. Соединение не потокобезопасно: в каждый момент
+ * им пользуется только один поток, получивший его из пула.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class CachedConnection implements AutoCloseable {
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    /**
+     * Конструктор класса {@code CachedConnection}.
+     * @param connection открытое соединение с БД
+     * @param pragmas PRAGMA, выполняемые при открытии, например {@code "busy_timeout=5000"}
+     */
+    public CachedConnection(Connection connection, String... pragmas) throws SQLException {
+        this.connection = connection;
+        try (Statement statement = connection.createStatement()) {
+            for (String pragma : pragmas) {
+                statement.execute("PRAGMA " + pragma);
+            }
+        }
+    }
+
+    /**
+     * возвращает подготовленный запрос из кэша, подготавливая его при первом обращении
+     * @param query текст запроса
+     * @return {@code PreparedStatement} без параметров
+     */
+    public PreparedStatement prepare(String query) throws SQLException {
+        PreparedStatement statement = statements.get(query);
+        if (statement == null) {
+            statement = connection.prepareStatement(query);
+            statements.put(query, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /**
+     * выполняет запрос без параметров, не кэшируя его
+     * @param query текст запроса
+     */
+    public void execute(String query) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(query);
+        }
+    }
+
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        connection.setAutoCommit(autoCommit);
+    }
+
+    public void commit() throws SQLException {
+        connection.commit();
+    }
+
+    public void rollback() throws SQLException {
+        connection.rollback();
+    }
+
+    /**
+     * закрывает все подготовленные запросы и соединение
+     */
+    @Override
+    public void close() throws SQLException {
+        for (PreparedStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+        connection.close();
+    }
+}
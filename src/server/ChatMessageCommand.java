@@ -0,0 +1,25 @@
+package server;
+
+/**
+ * Сообщение чата: строка, не являющаяся командой, рассылается
+ * участникам комнаты отправителя. Используется как команда по умолчанию
+ * {@link CommandRouter}, если включен {@code CHAT_PUBLIC_CHAT}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class ChatMessageCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        if (client.isSignedIn()) {
+            client.broadcastMessage(request.getMessage(), false);
+        }
+        return true;
+    }
+}
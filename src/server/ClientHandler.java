@@ -2,10 +2,9 @@ package server;
 
 import java.io.*;
 import java.net.Socket;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Класс обработчика клиента, реализующий интерфейс {@code Runnable}.
@@ -18,42 +17,78 @@ import java.util.*;
  */
 public class ClientHandler implements Runnable {
 
-    public static ArrayList<ClientHandler> clientHandlers = new ArrayList<>();
+    public static final SessionRegistry sessionRegistry = new SessionRegistry();
+    public static final RoomRegistry roomRegistry = new RoomRegistry();
+    public static final Cluster cluster = new Cluster(ServerConfig.NODE_ID, ServerConfig.NODE_LEASE_MS);
+    public static final CommandRouter commandRouter = CommandRouter.createDefault();
     private final Socket socket;
-    private ObjectOutputStream objectOutputStream;
-    private ObjectInputStream objectInputStream;
-    private EmailSender emailSender;
+    private MessageChannel channel;
+    private OutboundQueue outboundQueue;
+    private boolean historyBundles = false;
+    private PayloadCompression compression = PayloadCompression.NONE;
+    private final MailOutbox mailOutbox;
     private final PGP pgp;
-    private final String serverName;
+    private final ServerKeyStore serverKeyStore;
+    private String serverName;
     private String clientUsername;
-    private final String serverPublicKey;
     private String clientPublicKey;
-    static int severNum = 0;
+    private volatile String room;
+    private volatile String resumeTokenHash;
+    private final String sessionId = UUID.randomUUID().toString();
+    // id последнего сообщения истории, которое писатель действительно отправил клиенту
+    private final AtomicLong deliveredHistoryId = new AtomicLong();
     private final Database db;
-    public static Thread flagHandlerThread;
 
     /**
      * Конструктор класса {@code ClientHandler}. Определяет
-     * потоки ввода и вывода и pgp криптографер для дальнейшей работы.
+     * pgp криптографер для дальнейшей работы.
      * @param socket сокет клиента
+     * @param db база данных
+     * @param serverKeyStore хранилище ключа сервера
+     * @param mailOutbox очередь исходящих писем
      */
-    public ClientHandler(Socket socket, Database db) {
+    public ClientHandler(Socket socket, Database db, ServerKeyStore serverKeyStore, MailOutbox mailOutbox) {
         this.socket = socket;
         this.db = db;
+        this.serverKeyStore = serverKeyStore;
+        this.mailOutbox = mailOutbox;
 
-        severNum += 1;
-        serverName = "sever_" + severNum;
+        pgp = new PGP();
 
-        pgp = new PGP(serverName);
-        serverPublicKey = getStringFromFile(pgp.getPublicKeyFilepath(serverName));
+    }
 
+    /**
+     * Конструктор обработчика без сокета поверх готового канала, после
+     * обмена ключами. Сессия не регистрируется.
+     * @param db база данных
+     * @param username имя клиента
+     * @param publicKey публичный ключ клиента
+     * @param channel канал, в который пишет очередь клиента
+     */
+    ClientHandler(Database db, String username, String publicKey, MessageChannel channel) {
+        this(null, db, null, null);
+        this.channel = channel;
+        this.clientUsername = username;
+        this.clientPublicKey = publicKey;
+        outboundQueue = new OutboundQueue(channel, ServerConfig.OUTBOUND_QUEUE_SIZE, username, this::closeEverything);
+    }
+
+    /**
+     * Открывает канал обмена сообщениями. Вызывается в потоке обработчика,
+     * так как определение протокола блокируется до получения первых байт
+     * от клиента и не должно задерживать прием новых подключений.
+     * @return {@code true}, если канал открыт, иначе {@code false}
+     */
+    private boolean openStreams() {
         try {
-            objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
-            objectInputStream = new ObjectInputStream(socket.getInputStream());
+            channel = MessageChannel.open(socket, ServerConfig.PROTOCOL, ServerConfig.MAX_FRAME_BYTES,
+                    ServerConfig.PROTOCOL_DETECT_TIMEOUT_MS);
+            return true;
         } catch (IOException e) {
             System.err.println("Ошибка создания I/O потоков: " + e);
+            closeEverything();
+            return false;
         }
-
     }
 
     /**
@@ -63,334 +98,393 @@ public class ClientHandler implements Runnable {
      */
     @Override
     public void run() {
+        long handshakeStart = System.nanoTime();
+        if (!openStreams()) {
+            Metrics.ERRORS.get("handshake").increment();
+            return;
+        }
+
+        // ключ, выданный клиенту, используется до конца сессии даже после ротации
+        ServerKeyStore.ServerKey serverKey = serverKeyStore.acquireKey();
+        serverName = serverKey.getName();
         try {
-            // получение публичного ключа клиента
-            clientPublicKey = (String) objectInputStream.readObject();
+            try {
+                // получение публичного ключа клиента, перед которым клиент может прислать свои возможности
+                String capabilities = null;
+                clientPublicKey = channel.read();
+                if (clientPublicKey.startsWith(PayloadCompression.CAPABILITIES_PREFIX)) {
+                    capabilities = clientPublicKey;
+                    compression = PayloadCompression.negotiate(capabilities, ServerConfig.COMPRESSION);
+                    clientPublicKey = channel.read();
+                }
 
-            //отправка публичного ключа сервера клиенту
-            objectOutputStream.writeObject(serverPublicKey);
-            objectOutputStream.flush();
+                //отправка публичного ключа сервера клиенту
+                channel.write(serverKey.getPublicKey());
+                if (capabilities != null) {
+                    channel.write(compression.toCapabilities());
+                }
+                channel.flush();
 
-        } catch (Exception e) {
-            System.out.println("Ошибка обмена ключами: " + e);
-        }
+            } catch (Exception e) {
+                Metrics.ERRORS.get("handshake").increment();
+                System.out.println("Ошибка обмена ключами: " + e);
+            }
 
-        try {
-            // ожидание получения имени клиета
-            String username = (String) objectInputStream.readObject();
-            this.clientUsername = pgp.decryptString(username, serverName);
+            // дальнейшая отправка клиенту идет только через очередь писателя
+            outboundQueue = new OutboundQueue(channel, ServerConfig.OUTBOUND_QUEUE_SIZE,
+                    socket.getRemoteSocketAddress().toString(), this::closeEverything);
 
-            // сохранение ключа в файл
-            writeStringToFile(clientPublicKey, clientUsername);
+            try {
+                // ожидание получения имени клиета
+                String username = channel.read();
+                this.clientUsername = pgp.decryptString(username, serverName);
 
-        } catch (IOException | ClassNotFoundException e) {
-            closeEverything();
-            System.out.println("Ошибка получения имени клиента!");
-        }
+                // сохранение ключа в файл
+                writeStringToFile(clientPublicKey, clientUsername);
+                Metrics.HANDSHAKE.get().recordSince(handshakeStart);
+
+            } catch (IOException e) {
+                Metrics.ERRORS.get("handshake").increment();
+                closeEverything();
+                System.out.println("Ошибка получения имени клиента!");
+                return;
+            }
 
-        flagHandler();
-        listenForMessage();
+            listenForMessage();
+        } finally {
+            // чтение сессии завершено, ключ больше не нужен для расшифровки
+            serverKeyStore.releaseKey(serverKey);
+        }
 
     }
 
     /**
      * Постоянно прослушивает входной поток и ожидает получения сообщений.
-     * При поучении собщения рассылает его всем клиентам
+     * Каждое сообщение выполняется как команда через {@link #commandRouter}
      */
     public void listenForMessage() {
         String messageFromClient;
         boolean runningFlag = true;
 
-        while (socket.isConnected() & runningFlag) {
+        while (isConnected() & runningFlag) {
             try {
-                messageFromClient = pgp.decryptString((String) objectInputStream.readObject(), serverName);
-
-                if (messageFromClient.length() > 7 &&
-                        messageFromClient.startsWith("sign_in")) {
-                    runningFlag = signInProcess(messageFromClient);
-
-                } else if (messageFromClient.length() > 7 &&
-                        messageFromClient.startsWith("sign_up")) {
-                    runningFlag = signUpProcess(messageFromClient);
-
-                } else if (messageFromClient.length() > 17 &&
-                        messageFromClient.startsWith("password_recovery")) {
-                    runningFlag = passwordRecovery(messageFromClient);
-
-                } else if (messageFromClient.startsWith("!rating")) {
-                    sendScoreboard();
-                } else if (messageFromClient.length() > 12 &&
-                        messageFromClient.startsWith("answer_check")) {
-                    answerCheck(messageFromClient);
+                messageFromClient = pgp.decryptString(channel.read(), serverName);
+                if (messageFromClient == null) {
+                    // нерасшифрованный кадр пропускается, ошибка уже учтена в PGP
+                    continue;
                 }
-//                } else {
-//                    broadcastMessage(messageFromClient, false);
-//                }
 
-            } catch (IOException | ClassNotFoundException e) {
+                runningFlag = commandRouter.dispatch(this, messageFromClient);
+
+            } catch (IOException e) {
                 closeEverything();
                 break;
             }
         }
     }
 
-    private void flagHandler(){
-        flagHandlerThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    for (int id = db.getSentFlagCount()+1; id <= db.getFlagCount(); id++){
-                        String flag = db.getCryptedFlag(id);
-                        broadcastMessage(flag, true);
-                        db.setSentFlagCount(id);
-                        Thread.sleep(1*1000);
-                    }
-                } catch (Exception ignored) {
-                    System.out.println("Flag sending failed!");
-                }
-            }
-        });
-        flagHandlerThread.start();
+    /**
+     * Отправляет сообщение клиенту
+     * @param message отправляемое сообщение
+     */
+    public void sendMessage(String message) {
+        String payload = compression.compress(message, ServerConfig.COMPRESSION_THRESHOLD);
+        if (!outboundQueue.put(pgp.encryptString(payload, clientUsername), ServerConfig.SEND_TIMEOUT_MS)) {
+            System.err.println("Ошибка отправки сообщения: очередь клиента " + clientUsername + " закрыта или переполнена");
+        }
     }
 
-    private void answerCheck(String messageFromClient) {
-        String[] str = messageFromClient.split("\\|");
-        String flag = str[1];
-        int flafId = db.answerCheck(clientUsername, flag);
+    /**
+     * Шифрует сообщение для этого клиента и ставит его в очередь без
+     * ожидания. Вызывается из потоков других клиентов, поэтому шифрует
+     * криптографером вызывающего потока.
+     * @param callerPgp криптографер вызывающего потока
+     * @param message сообщение
+     * @return {@code true}, если сообщение поставлено в очередь
+     */
+    boolean offerMessage(PGP callerPgp, String message) {
+        String payload = compression.compress(message, ServerConfig.COMPRESSION_THRESHOLD);
+        return outboundQueue.offer(callerPgp.encryptString(payload, clientUsername));
+    }
 
-        if (flafId != 0) {
-            broadcastMessage(clientUsername+" - successful answer, id" + flafId, true);
-        } else {
-            sendMessage("|SERVER|failed answer check, id"+flafId);
+    /**
+     * Ожидает получение сообщения от клиента и возвращает его
+     * @return возвращает присланное сообщение, либо {@code null}, если
+     * сообщение не получено или не расшифровано; в этом случае сессия закрывается
+     */
+    public String waitMessage() {
+        try {
+            String message = pgp.decryptString(channel.read(), serverName);
+            if (message != null) {
+                return message;
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка получения сообщения: " + e);
         }
+        closeEverything();
+        return null;
     }
 
     /**
-     * Обрабатывает процесс входа клиента
-     * @param messageFromClient служебная строка с данными от клиента
+     * Рассылает сообщение клиента участникам его комнаты, кроме
+     * отправившего, а служебное сообщение - всем вошедшим клиентам
+     * @param messageToSend сообщение
+     * @param isService если {@code true}, то сообщение отправляется от
+     *                  имени сервера
      */
-    private boolean signInProcess(String messageFromClient) {
-        String[] str = messageFromClient.split("\\|");
-        String username = str[1];
-        String password = str[2];
-
-        if (db.authenticationUser(username, password) && !clientInClientHandlers()) {
-            sendMessage("successful_sign_in");
-            // добавление подключившегося клиента в общий список
-            clientHandlers.add(this);
-
-            sendChatHistory();
-//            if (!db.userInChat(clientUsername)) {
-//                broadcastMessage(clientUsername + " has connected!", true);
-//            }
-
-            return true;
+    public void broadcastMessage(String messageToSend, boolean isService) {
+        if (isService) {
+            broadcastMessage(db, pgp, "SERVER", messageToSend, true);
         } else {
-            sendMessage("failed_sign_in");
-            closeEverything();
-            return false;
+            broadcastToRoom(db, pgp, room, clientUsername, messageToSend);
         }
     }
 
     /**
-     * Обрабатывает процесс регистрации клиента
-     * @param messageFromClient служебная строка с данными от клиента
+     * Рассылает сообщение всем вошедшим клиентам во всех комнатах всех
+     * узлов кластера. Используется также вне сессий клиентов, например
+     * при публикации флагов.
+     * @param db база данных для сохранения сообщения в историю
+     * @param pgp криптографер вызывающего потока
+     * @param senderUsername имя отправителя
+     * @param messageToSend сообщение
+     * @param isService если {@code true}, сообщение получает и отправитель
      */
-    private boolean signUpProcess(String messageFromClient) {
-        String[] str = messageFromClient.split("\\|");
-        String username = str[1];
-        String password = str[2];
-        String email = str[3];
-
-        if (db.userNotRegistered(username)) {
-            sendMessage("successful_pre_sign_up");
-
-            String secretCode = pgp.generateSecretCode(6);
+    public static void broadcastMessage(Database db, PGP pgp, String senderUsername,
+                                        String messageToSend, boolean isService) {
+        broadcast(db, pgp, RoomRegistry.GLOBAL_ROOM, senderUsername, messageToSend, isService);
+    }
 
-            emailSender = new EmailSender(email);
-            emailSender.sendMessage("JavaChat registration secret code", "Secret code: " + secretCode);
+    /**
+     * Рассылает сообщение участникам комнаты на всех узлах кластера,
+     * кроме отправившего
+     * @param db база данных для сохранения сообщения в историю
+     * @param pgp криптографер вызывающего потока
+     * @param roomId комната
+     * @param senderUsername имя отправителя
+     * @param messageToSend сообщение
+     */
+    public static void broadcastToRoom(Database db, PGP pgp, String roomId, String senderUsername,
+                                       String messageToSend) {
+        broadcast(db, pgp, roomId, senderUsername, messageToSend, false);
+    }
 
-            while (socket.isConnected()) {
+    private static void broadcast(Database db, PGP pgp, String roomId, String senderUsername,
+                                  String messageToSend, boolean isService) {
+        SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yy H:mm");
+        String date = formatter.format(new Date());
 
-                String userSecretCode = waitMessage();
-                if (userSecretCode.equals("back")) {
-                    return false;
-                }
+        db.addNewMessage(roomId, date, senderUsername, messageToSend);
+        deliverBroadcast(pgp, roomId, date, senderUsername, messageToSend, isService);
+        cluster.publishBroadcast(roomId, date, senderUsername, messageToSend, isService);
+    }
 
-                if (secretCode.equals(userSecretCode)) {
-                    db.createUser(username, password, email);
-                    sendMessage("successful_sign_up");
-                    closeEverything();
-                    return true;
-                } else {
-                    sendMessage("failed_sign_up");
-                }
+    /**
+     * Рассылает уже сохраненное сообщение клиентам этого узла
+     * @param pgp криптографер вызывающего потока
+     * @param roomId комната, либо {@link RoomRegistry#GLOBAL_ROOM} для всех клиентов
+     * @param date дата сообщения
+     * @param senderUsername имя отправителя
+     * @param messageToSend сообщение
+     * @param isService если {@code true}, сообщение получает и отправитель
+     */
+    static void deliverBroadcast(PGP pgp, String roomId, String date, String senderUsername,
+                                 String messageToSend, boolean isService) {
+        String msg = date + "|" + senderUsername + "|" + messageToSend;
+        Collection<ClientHandler> audience = RoomRegistry.GLOBAL_ROOM.equals(roomId) ?
+                sessionRegistry.getAll() : roomRegistry.getMembers(roomId);
+
+        // получатели группируются по режиму сжатия, чтобы сжимать сообщение один раз на режим
+        Map<PayloadCompression, List<ClientHandler>> groups = new EnumMap<>(PayloadCompression.class);
+        int recipientCount = 0;
+        for (ClientHandler clientHandler : audience) {
+            if (!clientHandler.clientUsername.equals(senderUsername) | isService) {
+                groups.computeIfAbsent(clientHandler.compression, c -> new ArrayList<>()).add(clientHandler);
+                recipientCount++;
             }
+        }
+        Metrics.FANOUT.get().record(recipientCount);
 
-        } else {
-            sendMessage("failed_pre_sign_up");
-            closeEverything();
+        for (Map.Entry<PayloadCompression, List<ClientHandler>> group : groups.entrySet()) {
+            enqueueEncrypted(pgp, group.getKey().compress(msg, ServerConfig.COMPRESSION_THRESHOLD), group.getValue());
         }
-        return false;
+
     }
 
     /**
-     * Обрабатывает процесс сброса пароля
-     * @param messageFromClient служебная строка с данными от кклиента
+     * Шифрует сообщение для получателей и ставит его в их очереди
+     * @param pgp криптографер вызывающего потока
+     * @param msg сообщение
+     * @param recipients получатели
      */
-    private boolean passwordRecovery(String messageFromClient) {
-        String[] str = messageFromClient.split("\\|");
-        String username = str[1];
-
-        if (!db.userNotRegistered(username)) {
-            sendMessage("begin_password_recovery");
-
-            String secretCode = pgp.generateSecretCode(6);
+    private static void enqueueEncrypted(PGP pgp, String msg, List<ClientHandler> recipients) {
+        // тело шифруется один раз, для каждого получателя добавляется только сеансовый ключ
+        String sharedEncryptedMsg = null;
+        if (ServerConfig.SHARED_BROADCAST && recipients.size() > 1) {
+            List<String> recipientUsernames = new ArrayList<>(recipients.size());
+            for (ClientHandler clientHandler : recipients) {
+                recipientUsernames.add(clientHandler.clientUsername);
+            }
+            sharedEncryptedMsg = pgp.encryptString(msg, recipientUsernames);
+        }
 
-            emailSender = new EmailSender(db.getEmail(username));
-            emailSender.sendMessage("JavaChat confirm new password secret code",
-                    "Secret code:" + secretCode);
+        // запись в сокет выполняют писатели получателей, здесь сообщение только ставится в очередь
+        for (ClientHandler clientHandler : recipients) {
+            String encryptedMsg = sharedEncryptedMsg != null ? sharedEncryptedMsg :
+                    pgp.encryptString(msg, clientHandler.clientUsername);
 
-            while (socket.isConnected()) {
-                String s = waitMessage();
-                if (s.equals("back")) {
-                    return false;
-                }
-                String[] str1 = s.split("\\|");
-                username = str1[1];
-                String newPassword = str1[2];
-                String userSecretCode = str1[3];
-
-                if (secretCode.equals(userSecretCode)) {
-                    db.setPassword(username, newPassword);
-                    sendMessage("successful_password_recovery");
-                    closeEverything();
-                    return true;
-                } else {
-                    sendMessage("invalid_password_recovery");
-                }
+            clientHandler.outboundQueue.offer(encryptedMsg);
+        }
 
-            }
+    }
 
-        } else {
-            sendMessage("failed_begin_password_recovery");
-            closeEverything();
+    /**
+     * Переводит сессию в комнату. Прежняя комната покидается, поэтому
+     * сессия всегда находится ровно в одной комнате.
+     * @param newRoom имя комнаты
+     */
+    synchronized void joinRoom(String newRoom) {
+        if (newRoom.equals(room)) {
+            return;
+        }
+        roomRegistry.join(newRoom, this);
+        if (room != null) {
+            roomRegistry.leave(room, this);
         }
-        return false;
+        room = newRoom;
     }
 
     /**
-     * Отправляет сообщение клиенту
-     * @param message отправляемое сообщение
+     * Отправляет историю переписки текущей комнаты, записанную в БД
      */
-    public void sendMessage(String message) {
-        try {
-            objectOutputStream.writeObject(pgp.encryptString(message, clientUsername));
-            objectOutputStream.flush();
-        } catch (IOException e) {
-            System.err.println("Ошибка отправки сообщения: " + e);
-            removeClientHandler();
-        }
+    void sendChatHistory() {
+        long start = System.nanoTime();
+        // все сообщения комнаты до этого id попадут в страницу или старше нее
+        long newestId = db.getLastMessageId();
+        sendHistoryPage(Long.MAX_VALUE);
+        confirmHistoryDelivery(newestId);
+        Metrics.HISTORY_REPLAY.get(historyBundles ? "bundle" : "messages").recordSince(start);
     }
 
     /**
-     * Ожидает получение сообщения от клиента и возвращает его
-     * @return возвращает присланное сообщение, либо пустую строку в случае неудачного получения
+     * Отправляет страницу истории и курсор. Если клиент поддерживает
+     * кадры истории, страница упаковывается, сжимается и шифруется
+     * одним сообщением, иначе каждое сообщение отправляется отдельно.
+     * Страница выбирается из истории текущей комнаты.
+     * @param beforeId id сообщения, до которого выбирается страница
      */
-    public String waitMessage() {
-        try {
-            return pgp.decryptString((String) objectInputStream.readObject(), serverName);
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Ошибка получения сообщения: " + e);
-            e.printStackTrace();
-            removeClientHandler();
+    void sendHistoryPage(long beforeId) {
+        long oldestId;
+        if (historyBundles) {
+            List<String> page = new ArrayList<>(ServerConfig.HISTORY_PAGE_SIZE);
+            oldestId = db.getMessagesBefore(room, beforeId, ServerConfig.HISTORY_PAGE_SIZE,
+                    message -> page.add(formatHistoryMessage(message)));
+            if (!page.isEmpty()) {
+                sendMessage(HistoryBundle.PREFIX + HistoryBundle.encode(page));
+            }
+        } else {
+            oldestId = db.getMessagesBefore(room, beforeId, ServerConfig.HISTORY_PAGE_SIZE,
+                    message -> sendMessage(formatHistoryMessage(message)));
         }
-        return "";
+        sendMessage("history_cursor|" + oldestId);
     }
 
     /**
-     * Рассылает сообщение всем подключенным клиентам, кроме отправившего
-     * @param messageToSend сообщение
-     * @param isService если {@code true}, то сообщение отправляется от
-     *                  имени сервера
+     * Отправляет личные сообщения, пришедшие, пока клиент был не в сети,
+     * и отмечает их доставленными
      */
-    public void broadcastMessage(String messageToSend, boolean isService) {
-        String senderUsername;
-        SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yy H:mm");
-        String date = formatter.format(new Date());
-
-        if (!isService) {
-            senderUsername = clientUsername;
-        } else senderUsername = "SERVER";
-
-        String msg = date + "|" + senderUsername + "|" + messageToSend;
-
-        db.addNewMessage(date, senderUsername, messageToSend);
-
-        for (ClientHandler clientHandler : clientHandlers) {
-            try {
-                if (!clientHandler.clientUsername.equals(clientUsername) | isService) {
-
-                    clientHandler.objectOutputStream.writeObject(pgp.encryptString(msg, clientHandler.clientUsername));
-                    clientHandler.objectOutputStream.flush();
-
-                }
-            } catch (IOException e) {
-                removeClientHandler();
+    void sendPendingDirectMessages() {
+        long lastId = 0;
+        int count;
+        do {
+            List<String> page = new ArrayList<>(ServerConfig.HISTORY_PAGE_SIZE);
+            long pageLastId = db.getPendingDirectMessages(clientUsername, lastId, ServerConfig.HISTORY_PAGE_SIZE,
+                    message -> page.add("dm|" + message[0] + "|" + message[1] + "|" + message[2]));
+            for (String message : page) {
+                sendMessage(message);
             }
+            count = page.size();
+            if (pageLastId != 0) {
+                lastId = pageLastId;
+            }
+        } while (count == ServerConfig.HISTORY_PAGE_SIZE);
 
+        if (lastId != 0) {
+            db.markDirectMessagesDelivered(clientUsername, lastId);
         }
-
     }
 
     /**
-     * Отправляет историю переписки, записанную в БД
+     * Отправляет страницу переписки с собеседником и курсор
+     * @param peer имя собеседника
+     * @param beforeId id сообщения, до которого выбирается страница
      */
-    private void sendChatHistory() {
-        Map<Integer, String[]> history = db.getAllMessage();
+    void sendDirectHistoryPage(String peer, long beforeId) {
+        long oldestId = db.getDirectMessagesBefore(clientUsername, peer, beforeId, ServerConfig.HISTORY_PAGE_SIZE,
+                message -> sendMessage("dm_log|" + message[0] + "|" + message[1] + "|" + message[2] + "|" + message[3]));
+        sendMessage("dm_cursor|" + peer + "|" + oldestId);
+    }
 
-        for (int i = 1; i < history.size()+1; i++) {
-            String msg = history.get(i)[0] + "|" + history.get(i)[1] + "|" + history.get(i)[2];
+    /**
+     * Отправляет сообщения текущей комнаты, пришедшие после заданного,
+     * и {@code history_delta|id} с id последнего из них. Если их больше
+     * страницы, вместо них отправляется обычная последняя страница
+     * истории с курсором.
+     * @param afterId id последнего сообщения, известного клиенту
+     */
+    void sendHistorySince(long afterId) {
+        List<String> delta = new ArrayList<>(ServerConfig.HISTORY_PAGE_SIZE + 1);
+        long newestId = db.getMessagesAfter(room, afterId, ServerConfig.HISTORY_PAGE_SIZE + 1,
+                message -> delta.add(formatHistoryMessage(message)));
+        if (delta.size() > ServerConfig.HISTORY_PAGE_SIZE) {
+            sendChatHistory();
+            return;
+        }
 
-            try {
-                objectOutputStream.writeObject(pgp.encryptString(msg, clientUsername));
-                objectOutputStream.flush();
-            } catch (IOException e) {
-                removeClientHandler();
+        if (historyBundles && !delta.isEmpty()) {
+            sendMessage(HistoryBundle.PREFIX + HistoryBundle.encode(delta));
+        } else {
+            for (String message : delta) {
+                sendMessage(message);
             }
         }
+        sendMessage("history_delta|" + (newestId != 0 ? newestId : afterId));
+        confirmHistoryDelivery(newestId != 0 ? newestId : afterId);
     }
 
-    private void sendScoreboard() {
-        ArrayList<String[]> rating = db.getScoreboard();
-        String msg = "|SERVER|";
-
-        for (int i = 0; i < rating.size(); i++) {
-            msg += rating.get(i)[0] + " have " + rating.get(i)[1] + "score";
-            if (i < rating.size()-1){
-                msg += "\n";
-            }
-        }
-        try {
-            objectOutputStream.writeObject(pgp.encryptString(msg, clientUsername));
-            objectOutputStream.flush();
-        } catch (IOException e) {
-            removeClientHandler();
-        }
+    /**
+     * Ставит в очередь отметку: когда писатель отправит все сообщения
+     * перед ней, клиент гарантированно получил историю до {@code id}.
+     * Сообщения, поставленные в очередь, но не отправленные до разрыва,
+     * поэтому не считаются полученными при возобновлении сессии.
+     * @param id id последнего сообщения истории в отправленной странице
+     */
+    private void confirmHistoryDelivery(long id) {
+        outboundQueue.putCheckpoint(() -> deliveredHistoryId.accumulateAndGet(id, Math::max),
+                ServerConfig.SEND_TIMEOUT_MS);
     }
 
     /**
-     * позволяет получить весь текст из файла с заданным путем
-     * @param path путь к файлу
-     * @return String, содержащий весь текст из файла
+     * Выдает клиенту токен возобновления сессии {@code resume_token|token|id},
+     * где {@code id} - последнее сообщение истории, получение которого
+     * клиентом уже подтверждено
+     * @param lastId id последнего сообщения истории, известного клиенту
      */
-    private String getStringFromFile(String path) {
-        try {
-            return new String(Files.readAllBytes(Paths.get(path)));
-        } catch (IOException e) {
-            System.err.println("Ошибка чтения файла: " + e);
+    void issueResumeToken(long lastId) {
+        if (ServerConfig.RESUME_TOKEN_TTL_MS <= 0) {
+            return;
         }
-        return null;
+        String token = ResumeToken.generate();
+        String tokenHash = ResumeToken.hash(token);
+        deliveredHistoryId.accumulateAndGet(lastId, Math::max);
+        db.createResumeToken(tokenHash, clientUsername, room, lastId,
+                System.currentTimeMillis() + ServerConfig.RESUME_TOKEN_TTL_MS);
+        resumeTokenHash = tokenHash;
+        sendMessage("resume_token|" + token + "|" + lastId);
+    }
+
+    private String formatHistoryMessage(String[] message) {
+        return message[0] + "|" + message[1] + "|" + message[2];
     }
 
     /**
@@ -406,22 +500,39 @@ public class ClientHandler implements Runnable {
             writer.write(str);
             writer.flush();
             writer.close();
+            pgp.invalidatePublicKey(username);
         } catch (IOException e) {
             System.err.println("Ошибка записи ключа в файл: " + e);
         }
     }
 
-    public boolean clientInClientHandlers() {
-        boolean in = false;
-        if (clientHandlers.size() > 0) {
-            for (ClientHandler clientHandler : clientHandlers) {
-                if (clientHandler.clientUsername.equals(clientUsername)) {
-                    in = true;
-                    break;
-                }
-            }
+    /**
+     * Регистрирует вошедшую сессию на узле и захватывает владение
+     * пользователем в общей БД кластера. Регистрация выполняется первой:
+     * так новая сессия узла перехватывает владение только после ухода
+     * прежней, и освобождение прежней его не снимает.
+     * @return {@code false}, если пользователь уже вошел на этом или
+     * другом узле
+     */
+    boolean registerSession() {
+        if (!sessionRegistry.registerIfAbsent(clientUsername, this)) {
+            return false;
+        }
+        if (!cluster.claimSession(clientUsername, sessionId)) {
+            sessionRegistry.unregister(clientUsername, this);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Отменяет {@link #registerSession()}, если вход не завершился
+     * после регистрации, до уведомления других клиентов
+     */
+    void unregisterSession() {
+        if (sessionRegistry.unregister(clientUsername, this)) {
+            cluster.releaseSession(clientUsername, sessionId);
         }
-        return in;
     }
 
     /**
@@ -429,7 +540,80 @@ public class ClientHandler implements Runnable {
      * об этом всех в чате
      */
     public void removeClientHandler() {
-        clientHandlers.remove(this);
+        if (sessionRegistry.unregister(clientUsername, this)) {
+            PGP.getRecipientKeyring().remove(clientUsername);
+            if (resumeTokenHash != null && room != null) {
+                // срок токена отсчитывается от отключения, а не от входа; последним
+                // считается сообщение, отправленное писателем, а не последнее в БД.
+                // Продление выполняется до освобождения сессии: пока сессия
+                // захвачена, очистка истекших токенов этот токен не удаляет
+                db.updateResumeToken(resumeTokenHash, room, deliveredHistoryId.get(),
+                        System.currentTimeMillis() + ServerConfig.RESUME_TOKEN_TTL_MS);
+            }
+            cluster.releaseSession(clientUsername, sessionId);
+            cluster.publishSignOut(clientUsername);
+        }
+        synchronized (this) {
+            if (room != null) {
+                roomRegistry.leave(room, this);
+                room = null;
+            }
+        }
+    }
+
+    public Database getDb() {
+        return db;
+    }
+
+    public PGP getPgp() {
+        return pgp;
+    }
+
+    public MailOutbox getMailOutbox() {
+        return mailOutbox;
+    }
+
+    public String getClientUsername() {
+        return clientUsername;
+    }
+
+    public String getClientPublicKey() {
+        return clientPublicKey;
+    }
+
+    /**
+     * @return текущая комната сессии, либо {@code null} до входа
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * @return {@code true}, если клиент подключен
+     */
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    /**
+     * @return {@code true}, если этот обработчик зарегистрирован как сессия клиента
+     */
+    public boolean isSignedIn() {
+        return sessionRegistry.get(clientUsername) == this;
+    }
+
+    /**
+     * @param historyBundles {@code true}, если клиент принимает историю кадрами
+     */
+    void setHistoryBundles(boolean historyBundles) {
+        this.historyBundles = historyBundles;
+    }
+
+    /**
+     * @return очередь исходящих сообщений клиента, либо {@code null} до обмена ключами
+     */
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
     }
 
     /**
@@ -438,12 +622,13 @@ public class ClientHandler implements Runnable {
     public void closeEverything() {
 
         removeClientHandler();
+        if (outboundQueue != null) {
+            // уже поставленные в очередь ответы отправляются до закрытия сокета
+            outboundQueue.close(ServerConfig.SEND_TIMEOUT_MS);
+        }
         try {
-            if (objectInputStream != null) {
-                objectInputStream.close();
-            }
-            if (objectOutputStream != null) {
-                objectOutputStream.close();
+            if (channel != null) {
+                channel.close();
             }
             if (socket != null) {
                 socket.close();
@@ -0,0 +1,240 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Состояние этого узла в кластере: присутствие клиентов на других
+ * узлах и обработка событий {@link ClusterBus}.
+ * <p>
+ * Узлы кластера работают с одним файлом БД, поэтому история, личные
+ * сообщения и очки записываются один раз узлом, принявшим их от
+ * клиента. По шине передается только то, что нужно для рассылки
+ * клиентам других узлов. Повторный вход запрещается владением сессией,
+ * которое захватывается в общей БД, а не по событиям шины, так как
+ * события доходят до других узлов с задержкой. Владение действует, пока
+ * узел продлевает свою аренду в БД; разрыв соединения шины его не
+ * снимает, так как узел при этом может продолжать обслуживать клиентов.
+ * Пока шина не запущена, узел работает как одиночный сервер.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class Cluster {
+
+    /** префикс имени аренды, которую узел продлевает, пока работает */
+    public static final String NODE_LEASE_PREFIX = "node:";
+
+    /** криптографер потока шины; события разных узлов обрабатываются параллельно */
+    private static final ThreadLocal<PGP> busPgp = ThreadLocal.withInitial(PGP::new);
+
+    private final String nodeId;
+    private final long leaseMs;
+    private ScheduledExecutorService heartbeat;
+    private final Map<String, String> remoteSessions = new ConcurrentHashMap<>();
+    private volatile ClusterBus bus = ClusterBus.NONE;
+    private Database db;
+
+    /**
+     * Конструктор класса {@code Cluster}.
+     * @param nodeId имя этого узла
+     * @param leaseMs срок аренды узла в общей БД, мс
+     */
+    public Cluster(String nodeId, long leaseMs) {
+        this.nodeId = nodeId;
+        this.leaseMs = leaseMs;
+    }
+
+    /**
+     * подключает узел к кластеру
+     * @param db база данных узла
+     * @param bus шина кластера
+     */
+    public synchronized void start(Database db, ClusterBus bus) {
+        this.db = db;
+        this.bus = bus;
+        // сессии, оставшиеся от аварийно завершенного запуска этого узла
+        db.releaseSessions(nodeId);
+        renewLease();
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, leaseMs / 3);
+        heartbeat.scheduleAtFixedRate(this::renewLease, period, period, TimeUnit.MILLISECONDS);
+        bus.start(new Listener());
+    }
+
+    /**
+     * отключает узел от кластера и освобождает его аренду и сессии
+     */
+    public synchronized void close() {
+        ClusterBus current = bus;
+        bus = ClusterBus.NONE;
+        current.close();
+        remoteSessions.clear();
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+            db.releaseSessions(nodeId);
+            db.releaseLease(NODE_LEASE_PREFIX + nodeId, nodeId);
+        }
+    }
+
+    private void renewLease() {
+        if (!db.tryAcquireLease(NODE_LEASE_PREFIX + nodeId, nodeId, leaseMs)) {
+            System.err.println("Не удалось продлить аренду узла " + nodeId);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @param username имя пользователя
+     * @return имя узла, на котором вошел пользователь, либо {@code null},
+     * если он не вошел ни на одном другом узле
+     */
+    public String getNode(String username) {
+        return remoteSessions.get(username);
+    }
+
+    /**
+     * @return число клиентов, вошедших на других узлах
+     */
+    public int getRemoteSessionCount() {
+        return remoteSessions.size();
+    }
+
+    /**
+     * захватывает в общей БД владение сессией пользователя
+     * @param username имя пользователя
+     * @param sessionId идентификатор сессии
+     * @return {@code false}, если пользователь вошел на другом работающем узле
+     */
+    public boolean claimSession(String username, String sessionId) {
+        return db == null || db.tryClaimSession(username, nodeId, sessionId);
+    }
+
+    /**
+     * освобождает владение сессией пользователя
+     * @param username имя пользователя
+     * @param sessionId идентификатор сессии
+     */
+    public void releaseSession(String username, String sessionId) {
+        if (db != null) {
+            db.releaseSession(username, sessionId);
+        }
+    }
+
+    /**
+     * сообщает другим узлам о рассылке, уже сохраненной в истории
+     */
+    public void publishBroadcast(String roomId, String date, String sender, String message, boolean isService) {
+        bus.publish(new ClusterEvent(ClusterEvent.BROADCAST, nodeId,
+                roomId, date, sender, message, isService ? "1" : "0"));
+    }
+
+    /**
+     * сообщает другим узлам о входе клиента на этом узле
+     * @param username имя пользователя
+     */
+    public void publishSignIn(String username) {
+        bus.publish(new ClusterEvent(ClusterEvent.ONLINE, nodeId, username));
+    }
+
+    /**
+     * сообщает другим узлам о выходе клиента с этого узла
+     * @param username имя пользователя
+     */
+    public void publishSignOut(String username) {
+        bus.publish(new ClusterEvent(ClusterEvent.OFFLINE, nodeId, username));
+    }
+
+    /**
+     * передает узлу получателя личное сообщение, уже сохраненное
+     * недоставленным; узел получателя доставляет его и отмечает в БД
+     * @param node узел получателя
+     * @param id id сообщения в БД
+     * @return {@code false}, если событие не удалось поставить в очередь
+     * шины и сообщение будет доставлено только при следующем входе получателя
+     */
+    public boolean publishDirect(String node, long id, String date, String sender, String recipient,
+                                 String message) {
+        return bus.publish(new ClusterEvent(ClusterEvent.DIRECT, nodeId,
+                node, String.valueOf(id), date, sender, recipient, message));
+    }
+
+    /**
+     * сообщает другим узлам, что очки пользователя изменились в БД
+     * @param username имя пользователя
+     */
+    public void publishScore(String username) {
+        bus.publish(new ClusterEvent(ClusterEvent.SCORE, nodeId, username));
+    }
+
+    private class Listener implements ClusterBus.Listener {
+
+        @Override
+        public void onEvent(ClusterEvent event) {
+            switch (event.getType()) {
+                case ClusterEvent.BROADCAST:
+                    ClientHandler.deliverBroadcast(busPgp.get(), event.getField(0), event.getField(1),
+                            event.getField(2), event.getField(3), "1".equals(event.getField(4)));
+                    break;
+                case ClusterEvent.ONLINE:
+                    remoteSessions.put(event.getField(0), event.getOrigin());
+                    break;
+                case ClusterEvent.OFFLINE:
+                    remoteSessions.remove(event.getField(0), event.getOrigin());
+                    break;
+                case ClusterEvent.DIRECT:
+                    if (nodeId.equals(event.getField(0))) {
+                        deliverDirect(Long.parseLong(event.getField(1)), event.getField(2), event.getField(3),
+                                event.getField(4), event.getField(5));
+                    }
+                    break;
+                case ClusterEvent.SCORE:
+                    db.reloadScore(event.getField(0));
+                    break;
+                default:
+                    System.err.println("Неизвестное событие кластера: " + event);
+            }
+        }
+
+        @Override
+        public List<ClusterEvent> onPeerConnected() {
+            List<ClusterEvent> snapshot = new ArrayList<>();
+            for (ClientHandler clientHandler : ClientHandler.sessionRegistry.getAll()) {
+                snapshot.add(new ClusterEvent(ClusterEvent.ONLINE, nodeId, clientHandler.getClientUsername()));
+            }
+            return snapshot;
+        }
+
+        @Override
+        public void onNodeDown(String node) {
+            // владение сессиями узла не снимается: он может быть жив и только
+            // потерять соединение; его сессии освобождает истечение аренды узла
+            remoteSessions.values().removeIf(node::equals);
+            System.out.println("Узел " + node + " покинул кластер");
+        }
+
+        /**
+         * недоставленное сообщение остается в БД до следующего входа получателя
+         */
+        private void deliverDirect(long id, String date, String sender, String recipientUsername, String message) {
+            ClientHandler recipient = ClientHandler.sessionRegistry.get(recipientUsername);
+            if (recipient != null &&
+                    recipient.offerMessage(busPgp.get(), "dm|" + date + "|" + sender + "|" + message)) {
+                db.markDirectMessageDelivered(id);
+            }
+        }
+    }
+}
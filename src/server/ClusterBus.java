@@ -0,0 +1,85 @@
+package server;
+
+import java.util.List;
+
+/**
+ * Шина обмена событиями между узлами кластера.
+ * <p>
+ * Шина рассылает события всем доступным узлам и не гарантирует
+ * доставку узлу, который в этот момент недоступен: состояние, которое
+ * должно пережить разрыв, например присутствие клиентов, узел
+ * отправляет заново при восстановлении связи. События одного узла
+ * доставляются в порядке отправки.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public interface ClusterBus extends AutoCloseable {
+
+    /** шина одиночного сервера, не связанная ни с одним узлом */
+    ClusterBus NONE = new ClusterBus() {
+        @Override
+        public void start(Listener listener) {}
+
+        @Override
+        public boolean publish(ClusterEvent event) {
+            return false;
+        }
+
+        @Override
+        public void close() {}
+    };
+
+    /**
+     * Получатель событий шины. Методы вызываются в потоках шины.
+     */
+    interface Listener {
+
+        /**
+         * @param event событие другого узла
+         */
+        void onEvent(ClusterEvent event);
+
+        /**
+         * вызывается при подключении к узлу
+         * @return события, отправляемые этому узлу первыми
+         */
+        List<ClusterEvent> onPeerConnected();
+
+        /**
+         * вызывается при потере связи с узлом
+         * @param nodeId имя узла
+         */
+        void onNodeDown(String nodeId);
+    }
+
+    /**
+     * запускает прием и отправку событий
+     * @param listener получатель событий
+     */
+    void start(Listener listener);
+
+    /**
+     * ставит событие в очереди отправки всем узлам без ожидания
+     * @param event событие
+     * @return {@code true}, если событие поставлено в очереди всех узлов,
+     * {@code false}, если хотя бы для одного узла оно отброшено
+     */
+    boolean publish(ClusterEvent event);
+
+    @Override
+    void close();
+
+    /**
+     * создает шину по настройкам из {@link ServerConfig}
+     * @return {@link TcpClusterBus}, либо {@link #NONE}, если кластер не настроен
+     */
+    static ClusterBus fromConfig() {
+        if (ServerConfig.CLUSTER_PORT < 0) {
+            return NONE;
+        }
+        return new TcpClusterBus(ServerConfig.NODE_ID, ServerConfig.CLUSTER_BIND, ServerConfig.CLUSTER_PORT,
+                TcpClusterBus.parsePeers(ServerConfig.CLUSTER_PEERS), ServerConfig.CLUSTER_SECRET,
+                ServerConfig.CLUSTER_RECONNECT_MS);
+    }
+}
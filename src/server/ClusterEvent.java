@@ -0,0 +1,122 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Событие, передаваемое между узлами кластера по {@link ClusterBus}.
+ * <p>
+ * Событие состоит из типа, имени узла-источника и строковых полей,
+ * набор которых определяется типом. На проводе это число строк и
+ * затем каждая строка как длина и байты UTF-8.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public final class ClusterEvent {
+
+    /** приветствие при подключении: {@code secret} */
+    public static final String HELLO = "hello";
+    /** рассылка: {@code room, date, sender, message, service} */
+    public static final String BROADCAST = "broadcast";
+    /** клиент вошел на узле-источнике: {@code username} */
+    public static final String ONLINE = "online";
+    /** клиент вышел на узле-источнике: {@code username} */
+    public static final String OFFLINE = "offline";
+    /** личное сообщение, уже сохраненное в БД, клиенту узла {@code node}: {@code node, id, date, sender, recipient, message} */
+    public static final String DIRECT = "dm";
+    /** изменились очки пользователя: {@code username} */
+    public static final String SCORE = "score";
+
+    private static final int MAX_STRINGS = 16;
+
+    private final String type;
+    private final String origin;
+    private final String[] fields;
+
+    /**
+     * Конструктор класса {@code ClusterEvent}.
+     * @param type тип события
+     * @param origin имя узла-источника
+     * @param fields поля события
+     */
+    public ClusterEvent(String type, String origin, String... fields) {
+        this.type = type;
+        this.origin = origin;
+        this.fields = fields;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @param index номер поля, начиная с 0
+     * @return значение поля
+     * @throws IllegalArgumentException если поля нет
+     */
+    public String getField(int index) {
+        if (index >= fields.length) {
+            throw new IllegalArgumentException("В событии " + type + " нет поля " + (index + 1));
+        }
+        return fields[index];
+    }
+
+    /**
+     * записывает событие в поток без сброса буфера
+     * @param out поток вывода
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(fields.length + 2);
+        writeString(out, type);
+        writeString(out, origin);
+        for (String field : fields) {
+            writeString(out, field);
+        }
+    }
+
+    /**
+     * читает событие из потока
+     * @param in поток ввода
+     * @param maxBytes максимальная длина одной строки в байтах
+     * @return {@code ClusterEvent}
+     */
+    public static ClusterEvent readFrom(DataInputStream in, int maxBytes) throws IOException {
+        int count = in.readInt();
+        if (count < 2 || count > MAX_STRINGS) {
+            throw new IOException("Неверное число полей события: " + count);
+        }
+        String type = readString(in, maxBytes);
+        String origin = readString(in, maxBytes);
+        String[] fields = new String[count - 2];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = readString(in, maxBytes);
+        }
+        return new ClusterEvent(type, origin, fields);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, int maxBytes) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxBytes) {
+            throw new IOException("Размер поля " + length + " превышает допустимый " + maxBytes);
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return type + " from " + origin;
+    }
+}
@@ -0,0 +1,23 @@
+package server;
+
+/**
+ * Команда клиента, зарегистрированная в {@link CommandRouter}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public interface Command {
+
+    /**
+     * @return код команды, с которого начинается служебная строка клиента
+     */
+    String getOpcode();
+
+    /**
+     * выполняет команду в потоке обработчика клиента
+     * @param client обработчик клиента, приславшего команду
+     * @param request разобранная служебная строка
+     * @return {@code false}, если сессия должна завершиться, иначе {@code true}
+     */
+    boolean execute(ClientHandler client, CommandRequest request);
+}
@@ -0,0 +1,129 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Разобранная служебная строка клиента вида {@code opcode|field1|field2...}.
+ * <p>
+ * Поля выделяются поиском разделителя, без регулярных выражений.
+ * Пустые поля сохраняются, отсутствующие поля возвращаются как
+ * {@code null}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public final class CommandRequest {
+
+    public static final char SEPARATOR = '|';
+
+    private final String message;
+    private final String opcode;
+    private final String[] fields;
+
+    private CommandRequest(String message, String opcode, String[] fields) {
+        this.message = message;
+        this.opcode = opcode;
+        this.fields = fields;
+    }
+
+    /**
+     * разбирает служебную строку клиента
+     * @param message строка от клиента
+     * @return {@code CommandRequest}
+     */
+    public static CommandRequest parse(String message) {
+        int end = message.indexOf(SEPARATOR);
+        if (end < 0) {
+            return new CommandRequest(message, message, new String[0]);
+        }
+
+        String opcode = message.substring(0, end);
+        String[] fields = new String[4];
+        int count = 0;
+        int start = end + 1;
+        while (true) {
+            end = message.indexOf(SEPARATOR, start);
+            if (count == fields.length) {
+                fields = Arrays.copyOf(fields, count * 2);
+            }
+            if (end < 0) {
+                fields[count++] = message.substring(start);
+                break;
+            }
+            fields[count++] = message.substring(start, end);
+            start = end + 1;
+        }
+        return new CommandRequest(message, opcode, count == fields.length ? fields : Arrays.copyOf(fields, count));
+    }
+
+    /**
+     * @return исходная строка от клиента
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return код команды - часть строки до первого разделителя
+     */
+    public String getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * @return число полей после кода команды
+     */
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    /**
+     * @param index номер поля, начиная с 0
+     * @return значение поля, либо {@code null}, если поля нет
+     */
+    public String getField(int index) {
+        return index < fields.length ? fields[index] : null;
+    }
+
+    /**
+     * @param index номер поля, начиная с 0
+     * @return значение поля
+     * @throws IllegalArgumentException если поля нет
+     */
+    public String requireField(int index) {
+        if (index >= fields.length) {
+            throw new IllegalArgumentException("В команде " + opcode + " нет поля " + (index + 1));
+        }
+        return fields[index];
+    }
+
+    /**
+     * @param fromIndex номер поля, с которого начинается поиск
+     * @param value искомое значение
+     * @return {@code true}, если одно из полей начиная с {@code fromIndex}
+     * равно {@code value}; используется для необязательных флагов команды
+     */
+    public boolean hasField(int fromIndex, String value) {
+        for (int i = fromIndex; i < fields.length; i++) {
+            if (fields[i].equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param index номер поля, начиная с 0
+     * @return поле и все следующие за ним вместе с разделителями, то есть
+     * текст, который может сам содержать разделитель
+     * @throws IllegalArgumentException если поля нет
+     */
+    public String requireRemainder(int index) {
+        requireField(index);
+        int start = opcode.length() + 1;
+        for (int i = 0; i < index; i++) {
+            start += fields[i].length() + 1;
+        }
+        return message.substring(start);
+    }
+}
@@ -0,0 +1,150 @@
+package server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Таблица команд клиента: код команды отображается на обработчик.
+ * <p>
+ * Для каждой команды считается число вызовов, ошибок разбора и
+ * время выполнения, которое публикуется в {@link Metrics#COMMANDS}.
+ * Время команд регистрации и сброса пароля включает ожидание
+ * секретного кода от клиента. Команды регистрируются до начала работы
+ * сервера, после этого таблица только читается.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class CommandRouter {
+
+    private final Map<String, Entry> commands = new LinkedHashMap<>();
+    private final LongAdder unknownCount = new LongAdder();
+    private Command fallback;
+
+    /**
+     * @return {@code CommandRouter} со всеми командами чата
+     */
+    public static CommandRouter createDefault() {
+        return new CommandRouter()
+                .register(new SignInCommand())
+                .register(new ResumeCommand())
+                .register(new SignUpCommand())
+                .register(new PasswordRecoveryCommand())
+                .register(new HistoryBeforeCommand())
+                .register(new JoinRoomCommand())
+                .register(new LeaveRoomCommand())
+                .register(new ListRoomsCommand())
+                .register(new DirectMessageCommand())
+                .register(new DirectHistoryCommand())
+                .register(new AnswerCheckCommand())
+                .register(new RatingCommand())
+                .setFallback(ServerConfig.PUBLIC_CHAT ? new ChatMessageCommand() : null);
+    }
+
+    /**
+     * регистрирует команду
+     * @param command команда
+     * @return этот {@code CommandRouter}
+     */
+    public CommandRouter register(Command command) {
+        if (commands.putIfAbsent(command.getOpcode(), new Entry(command)) != null) {
+            throw new IllegalArgumentException("Команда уже зарегистрирована: " + command.getOpcode());
+        }
+        return this;
+    }
+
+    /**
+     * задает команду для строк с незарегистрированным кодом
+     * @param fallback команда, либо {@code null}, чтобы такие строки игнорировались
+     * @return этот {@code CommandRouter}
+     */
+    public CommandRouter setFallback(Command fallback) {
+        this.fallback = fallback;
+        return this;
+    }
+
+    /**
+     * разбирает служебную строку клиента и выполняет команду.
+     * Строки с неизвестным кодом передаются команде по умолчанию,
+     * если она задана, иначе игнорируются. Непредвиденная ошибка команды
+     * закрывает сессию клиента.
+     * @param client обработчик клиента
+     * @param message строка от клиента
+     * @return {@code false}, если сессия должна завершиться, иначе {@code true}
+     */
+    public boolean dispatch(ClientHandler client, String message) {
+        CommandRequest request = CommandRequest.parse(message);
+        Entry entry = commands.get(request.getOpcode());
+        if (entry == null) {
+            unknownCount.increment();
+            if (fallback == null) {
+                return true;
+            }
+            long start = System.nanoTime();
+            try {
+                return fallback.execute(client, request);
+            } catch (RuntimeException e) {
+                return fail(client, request, e);
+            } finally {
+                Metrics.COMMANDS.get("chat").recordSince(start);
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            return entry.command.execute(client, request);
+        } catch (IllegalArgumentException e) {
+            entry.errorCount.increment();
+            Metrics.ERRORS.get("command").increment();
+            client.sendMessage("|SERVER|invalid " + request.getOpcode() + " request");
+            return true;
+        } catch (RuntimeException e) {
+            entry.errorCount.increment();
+            return fail(client, request, e);
+        } finally {
+            entry.timing.recordSince(start);
+        }
+    }
+
+    private static boolean fail(ClientHandler client, CommandRequest request, RuntimeException e) {
+        Metrics.ERRORS.get("command").increment();
+        System.err.println("Ошибка выполнения команды " + request.getOpcode() + ": " + e);
+        client.closeEverything();
+        return false;
+    }
+
+    /**
+     * @return число строк с незарегистрированным кодом команды, включая
+     * переданные команде по умолчанию
+     */
+    public long getUnknownCount() {
+        return unknownCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Entry> e : commands.entrySet()) {
+            Entry entry = e.getValue();
+            builder.append(e.getKey())
+                    .append(": count=").append(entry.timing.getCount())
+                    .append(", errors=").append(entry.errorCount.sum())
+                    .append(", avgUs=").append(entry.timing.getAverage() / 1000)
+                    .append(", maxUs=").append(entry.timing.getMax() / 1000)
+                    .append('\n');
+        }
+        return builder.append("unknown: count=").append(getUnknownCount()).toString();
+    }
+
+    private static class Entry {
+        final Command command;
+        final Histogram timing;
+        final LongAdder errorCount = new LongAdder();
+
+        Entry(Command command) {
+            this.command = command;
+            this.timing = Metrics.COMMANDS.get(command.getOpcode());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package server;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Движок подключений, исполняющий обработчики клиентов.
+ * <p>
+ * Поддерживает два режима, выбираемых при запуске сервера:
+ * <ul>
+ *     <li>{@link Mode#VIRTUAL} - отдельный виртуальный поток на каждое
+ *     подключение, число сессий ограничено только памятью;</li>
+ *     <li>{@link Mode#POOL} - ограниченный пул платформенных потоков,
+ *     подключения сверх размера пула отклоняются.</li>
+ * </ul>
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class ConnectionEngine {
+
+    /**
+     * режим исполнения обработчиков клиентов
+     */
+    public enum Mode {
+        VIRTUAL,
+        POOL;
+
+        /**
+         * возвращает режим по его имени без учета регистра
+         * @param name имя режима
+         * @return {@code Mode}, либо {@link #VIRTUAL} для неизвестного имени
+         */
+        public static Mode parse(String name) {
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            System.err.println("Неизвестный режим движка подключений: " + name);
+            return VIRTUAL;
+        }
+    }
+
+    private final Mode mode;
+    private final ExecutorService executor;
+    private final Set<ClientHandler> activeHandlers = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    /**
+     * Конструктор класса {@code ConnectionEngine}.
+     * @param mode режим исполнения
+     * @param poolSize размер пула потоков, используется только в режиме {@link Mode#POOL}
+     */
+    public ConnectionEngine(Mode mode, int poolSize) {
+        this.mode = mode;
+
+        if (mode == Mode.POOL) {
+            AtomicInteger threadNum = new AtomicInteger();
+            executor = new ThreadPoolExecutor(poolSize, poolSize,
+                    60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    runnable -> new Thread(runnable, "client-handler-" + threadNum.incrementAndGet()),
+                    new ThreadPoolExecutor.AbortPolicy());
+        } else {
+            executor = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("client-handler-", 1).factory());
+        }
+    }
+
+    /**
+     * создает движок по настройкам из {@link ServerConfig}
+     * @return {@code ConnectionEngine}
+     */
+    public static ConnectionEngine fromConfig() {
+        return new ConnectionEngine(Mode.parse(ServerConfig.ENGINE_MODE), ServerConfig.POOL_SIZE);
+    }
+
+    /**
+     * запускает обработчик клиента. Если движок остановлен или пул
+     * заполнен, соединение с клиентом закрывается.
+     * @param clientHandler обработчик нового клиента
+     * @return {@code true}, если обработчик запущен, иначе {@code false}
+     */
+    public boolean submit(ClientHandler clientHandler) {
+        if (!running) {
+            clientHandler.closeEverything();
+            return false;
+        }
+
+        activeHandlers.add(clientHandler);
+        try {
+            executor.execute(() -> {
+                try {
+                    clientHandler.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Ошибка обработчика клиента: " + e);
+                } finally {
+                    // сокет, писатель и сессия освобождаются при любом завершении обработчика
+                    clientHandler.closeEverything();
+                    activeHandlers.remove(clientHandler);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            activeHandlers.remove(clientHandler);
+            clientHandler.closeEverything();
+            System.err.println("Подключение отклонено, достигнут предел сессий: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * останавливает движок: новые подключения не принимаются, открытые
+     * сессии закрываются, после чего ожидается завершение их потоков
+     * @param timeoutMs максимальное время ожидания, мс
+     */
+    public void shutdown(long timeoutMs) {
+        running = false;
+        executor.shutdown();
+
+        for (ClientHandler clientHandler : activeHandlers) {
+            clientHandler.closeEverything();
+        }
+
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return число активных сессий
+     */
+    public int getActiveConnections() {
+        return activeHandlers.size();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+}
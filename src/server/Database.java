@@ -5,104 +5,156 @@ import org.sqlite.JDBC;
 
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * Класс, содержащий методы для работы с базой данных.
+ * <p>
+ * БД работает в режиме WAL: запросы на чтение выполняются на пуле
+ * соединений только для чтения и не ждут записи, а все изменения
+ * выполняются через единственное соединение-писатель. Каждое
+ * соединение хранит свои подготовленные запросы.
  *
  * @author Kirill Chezlov
- * @version 1.0
+ * @version 1.1
  */
 public class Database {
-    private static final String DB_PATH = "jdbc:sqlite:src/server/res/db/database.db";
-    private Connection connection;
+    private static final String BUSY_TIMEOUT_PRAGMA = "busy_timeout=5000";
+    /** число попыток чтения истории, согласованного со снимком журнала */
+    private static final int PENDING_READ_ATTEMPTS = 3;
+
+    private CachedConnection writer;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BlockingQueue<CachedConnection> readers = new ArrayBlockingQueue<>(Math.max(1, ServerConfig.DB_READERS));
+    private MessageJournal messageJournal;
+    private final Leaderboard leaderboard = new Leaderboard();
+
+    /**
+     * Запрос к БД, выполняемый на полученном соединении.
+     */
+    @FunctionalInterface
+    private interface SqlCall<T> {
+        T call(CachedConnection connection) throws SQLException;
+    }
 
     /**
-     * подключение к менеджеру драйверов для работы с БД, создание таблиц
-     * с данными пользователей и историей сообщений, если их нет
+     * подключение к БД из {@link ServerConfig#DB_URL}
      */
     public Database() {
+        this(ServerConfig.DB_URL);
+    }
+
+    /**
+     * подключение к менеджеру драйверов для работы с БД и применение
+     * миграций схемы, которые еще не были применены
+     * @param dbUrl адрес JDBC файла SQLite
+     */
+    public Database(String dbUrl) {
         try {
             DriverManager.registerDriver(new JDBC());
-            this.connection = DriverManager.getConnection(DB_PATH);
-            connection.setAutoCommit(true);
-            createUsersTable();
-            createRatingTable();
-            createChatHistoryTable();
-            createFlagsTable();
-            createSentFlagsCountTable();
+            // режим WAL сохраняется в файле БД, поэтому включается до открытия читателей
+            this.writer = new CachedConnection(DriverManager.getConnection(dbUrl),
+                    "journal_mode=WAL", "synchronous=NORMAL", BUSY_TIMEOUT_PRAGMA,
+                    "temp_store=MEMORY", "cache_size=-8000");
+            for (int i = 0; i < Math.max(1, ServerConfig.DB_READERS); i++) {
+                readers.add(new CachedConnection(DriverManager.getConnection(dbUrl),
+                        "query_only=ON", BUSY_TIMEOUT_PRAGMA, "cache_size=-4000"));
+            }
+            write("migrate", SchemaMigrations::migrate);
+            leaderboard.load(getScoreboard());
+            messageJournal = new MessageJournal(this::addNewMessages, ServerConfig.JOURNAL_CAPACITY,
+                    ServerConfig.JOURNAL_BATCH_SIZE, ServerConfig.JOURNAL_FLUSH_INTERVAL_MS);
         } catch (SQLException e) {
             System.err.println("Ошибка подключения к БД: " + e);
         }
     }
 
     /**
-     * создание таблицы с данными пользователей
-     * <p>
-     * 'username' TEXT PRIMARY KEY
-     * <p>
-     * 'password' TEXT
-     * <p>
-     * 'email' TEXT
+     * выполняет запрос на свободном соединении для чтения. Соединение
+     * занято, пока выполняется {@code call}, поэтому {@code call} не должен
+     * блокироваться на чем-либо, кроме самого запроса.
+     * @param operation имя операции для {@link Metrics#DATABASE}
      */
-    public void createUsersTable() {
-        try{
-            String query = "CREATE TABLE IF NOT EXISTS 'users'" +
-                    "('username' TEXT PRIMARY KEY, 'password' TEXT, 'email' TEXT)";
-            Statement statement = connection.createStatement();
-            statement.execute(query);
-
-        } catch (SQLException e) {
-            System.err.println("Ошибка создания таблицы 'users': " + e);
+    private <T> T read(String operation, SqlCall<T> call) throws SQLException {
+        long start = System.nanoTime();
+        CachedConnection reader;
+        try {
+            reader = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Ожидание соединения прервано", e);
         }
-    }
-
-    public void createRatingTable() {
-        try{
-            String query = "CREATE TABLE IF NOT EXISTS 'rating'('username' TEXT PRIMARY KEY, 'score' INTEGER)";
-            Statement statement = connection.createStatement();
-            statement.execute(query);
-
+        try {
+            return call.call(reader);
         } catch (SQLException e) {
-            System.err.println("Ошибка создания таблицы 'rating': " + e);
+            Metrics.ERRORS.get("db").increment();
+            throw e;
+        } finally {
+            readers.add(reader);
+            Metrics.DATABASE.get(operation).recordSince(start);
         }
     }
 
-    public void createFlagsTable() {
-        try{
-            String query = "CREATE TABLE IF NOT EXISTS 'flags'" +
-                    "('id' INTEGER PRIMARY KEY AUTOINCREMENT, 'flag' TEXT, 'encrypt_flag' TEXT, 'cost' INTEGER)";
-            Statement statement = connection.createStatement();
-            statement.execute(query);
-
+    /**
+     * выполняет запрос на соединении-писателе
+     * @param operation имя операции для {@link Metrics#DATABASE}
+     */
+    private <T> T write(String operation, SqlCall<T> call) throws SQLException {
+        long start = System.nanoTime();
+        writeLock.lock();
+        try {
+            return call.call(writer);
         } catch (SQLException e) {
-            System.err.println("Ошибка создания таблицы 'rating': " + e);
+            Metrics.ERRORS.get("db").increment();
+            throw e;
+        } finally {
+            writeLock.unlock();
+            Metrics.DATABASE.get(operation).recordSince(start);
         }
     }
 
-    public void createSentFlagsCountTable() {
-        try{
-            String query = "CREATE TABLE IF NOT EXISTS 'sent_flags'('name' TEXT PRIMARY KEY, 'count' INTEGER)";
-            Statement statement = connection.createStatement();
-            statement.execute(query);
-
-            String query1 = "INSERT INTO 'sent_flags' ('name', 'count') VALUES(?, ?)";
-            PreparedStatement statement1 = connection.prepareStatement(query1);
-            statement1.setString(1, "sent_flag_count");
-            statement1.setInt(2, 0);
-            statement1.execute();
-        } catch (SQLException ignored) {}
+    /**
+     * выполняет запросы на соединении-писателе в одной транзакции
+     * @param operation имя операции для {@link Metrics#DATABASE}
+     */
+    private <T> T transaction(String operation, SqlCall<T> call) throws SQLException {
+        long start = System.nanoTime();
+        writeLock.lock();
+        try {
+            writer.setAutoCommit(false);
+            try {
+                T result = call.call(writer);
+                writer.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                Metrics.ERRORS.get("db").increment();
+                writer.rollback();
+                throw e;
+            } finally {
+                writer.setAutoCommit(true);
+            }
+        } finally {
+            writeLock.unlock();
+            Metrics.DATABASE.get(operation).recordSince(start);
+        }
     }
 
     public void addNewFlag(String flag, String encryptFlag, int cost) {
         try {
             String query = "INSERT INTO 'flags' ('flag', 'encrypt_flag', 'cost') VALUES(?, ?, ?)";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, flag);
-            statement.setString(2, encryptFlag);
-            statement.setInt(3, cost);
-            statement.execute();
+            write("addNewFlag", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, flag);
+                statement.setString(2, encryptFlag);
+                statement.setInt(3, cost);
+                statement.execute();
+                return null;
+            });
 
         } catch (SQLException e) {
             System.err.println("Ошибка добавления данных: " + e);
@@ -112,11 +164,17 @@ public class Database {
     public String getCryptedFlag(int id){
         try {
             String query = "SELECT id, encrypt_flag FROM flags WHERE id=?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setInt(1, id);
+            return read("getCryptedFlag", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setInt(1, id);
 
-            ResultSet resultSet = statement.executeQuery();
-            return "id" + resultSet.getString("id")+ ": " + resultSet.getString("encrypt_flag");
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return "";
+                    }
+                    return "id" + resultSet.getString("id") + ": " + resultSet.getString("encrypt_flag");
+                }
+            });
         } catch (SQLException ignored) {}
         return "";
     }
@@ -124,10 +182,13 @@ public class Database {
     public int getFlagCount() {
         try {
             String query = "SELECT Count(*) AS count FROM flags";
-            PreparedStatement statement = connection.prepareStatement(query);
+            return read("getFlagCount", connection -> {
+                PreparedStatement statement = connection.prepare(query);
 
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.getInt("count");
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getInt("count") : 0;
+                }
+            });
         } catch (SQLException ignored) {}
         return 0;
     }
@@ -135,11 +196,14 @@ public class Database {
     public int getSentFlagCount() {
         try {
             String query = "SELECT count FROM sent_flags WHERE name=?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, "sent_flag_count");
+            return read("getSentFlagCount", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, "sent_flag_count");
 
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.getInt("count");
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getInt("count") : 0;
+                }
+            });
         } catch (SQLException ignored) {}
         return 0;
     }
@@ -147,39 +211,19 @@ public class Database {
     public void setSentFlagCount(int count) {
         try {
             String query = "UPDATE sent_flags SET count=? WHERE name=?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setInt(1, count);
-            statement.setString(2, "sent_flag_count");
+            write("setSentFlagCount", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setInt(1, count);
+                statement.setString(2, "sent_flag_count");
 
-            statement.execute();
+                statement.execute();
+                return null;
+            });
         } catch (SQLException e) {
             System.err.println(e);
         }
     }
 
-    /**
-     * создание таблицы для хранения истории сообщений
-     * <p>
-     * 'id' INTEGER PRIMARY KEY AUTOINCREMENT
-     * <p>
-     * 'date' TEXT
-     * <p>
-     * 'sender' TEXT
-     * <p>
-     * 'message' TEXT
-     */
-    public void createChatHistoryTable() {
-        try{
-            String query = "CREATE TABLE IF NOT EXISTS 'chat_history'" +
-                    "('id' INTEGER PRIMARY KEY AUTOINCREMENT, 'date' TEXT, 'sender' TEXT, 'message' TEXT)";
-            Statement statement = connection.createStatement();
-            statement.execute(query);
-
-        } catch (SQLException e) {
-            System.err.println("Ошибка создания таблицы 'chat_history': " + e);
-        }
-    }
-
     /**
      * добавление нового пользователя
      * @param username login нового пользователя
@@ -189,13 +233,21 @@ public class Database {
     public void createUser(String username, String password, String email) {
         try {
             String query = "INSERT INTO 'users' ('username', 'password', 'email') VALUES(?, ?, ?)";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, username);
-            statement.setString(2, password);
-            statement.setString(3, email);
-            statement.execute();
+            String ratingQuery = "INSERT INTO 'rating' ('username', 'score') VALUES(?, ?)";
+            transaction("createUser", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, username);
+                statement.setString(2, password);
+                statement.setString(3, email);
+                statement.execute();
 
-            createUserRating(username);
+                PreparedStatement ratingStatement = connection.prepare(ratingQuery);
+                ratingStatement.setString(1, username);
+                ratingStatement.setInt(2, 0);
+                ratingStatement.execute();
+                return null;
+            });
+            leaderboard.setScore(username, 0);
 
         } catch (SQLException e) {
             System.err.println("Ошибка добавления данных: " + e);
@@ -205,10 +257,14 @@ public class Database {
     public void createUserRating(String username) {
         try {
             String query = "INSERT INTO 'rating' ('username', 'score') VALUES(?, ?)";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, username);
-            statement.setInt(2, 0);
-            statement.execute();
+            write("createUserRating", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, username);
+                statement.setInt(2, 0);
+                statement.execute();
+                return null;
+            });
+            leaderboard.setScore(username, 0);
 
         } catch (SQLException e) {
             System.err.println("Ошибка добавления данных: " + e);
@@ -224,38 +280,84 @@ public class Database {
     public boolean authenticationUser(String username, String password) {
         try {
             String query = "SELECT username FROM users WHERE username=? AND password=?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, username);
-            statement.setString(2, password);
+            return read("authenticationUser", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, username);
+                statement.setString(2, password);
 
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.getString("username").equals(username);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() && resultSet.getString("username").equals(username);
+                }
+            });
         } catch (SQLException ignored) {}
         return false;
     }
 
+    /**
+     * проверяет ответ и начисляет очки одной транзакцией: решение
+     * записывается в 'solves', где пара (username, flag_id) уникальна,
+     * а очки прибавляются через {@code score = score + cost}, поэтому
+     * одновременные ответы не теряют очки и флаг засчитывается один раз
+     * @param username имя пользователя
+     * @param flag присланный флаг
+     * @return id флага при успешном ответе, {@code -id}, если флаг уже
+     * решен этим пользователем, либо 0 для неверного флага
+     */
     public int answerCheck(String username, String flag) {
         try {
-            String query = "SELECT cost, id FROM flags WHERE flag=?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, flag);
+            String flagQuery = "SELECT cost, id FROM flags WHERE flag=?";
+            String solveQuery = "INSERT OR IGNORE INTO 'solves' ('username', 'flag_id', 'solved_at') " +
+                    "VALUES(?, ?, datetime('now'))";
+            String scoreQuery = "UPDATE rating SET score = score + ? WHERE username=?";
+            int[] idAndCost = transaction("answerCheck", connection -> {
+                PreparedStatement flagStatement = connection.prepare(flagQuery);
+                flagStatement.setString(1, flag);
 
-            ResultSet resultSet = statement.executeQuery();
+                int cost;
+                int id;
+                try (ResultSet resultSet = flagStatement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return new int[]{0, 0};
+                    }
+                    cost = resultSet.getInt("cost");
+                    id = resultSet.getInt("id");
+                }
 
-            setScore(username, getScore(username)+resultSet.getInt("cost"));
-            return resultSet.getInt("id");
-        } catch (SQLException ignored) {}
+                PreparedStatement solveStatement = connection.prepare(solveQuery);
+                solveStatement.setString(1, username);
+                solveStatement.setInt(2, id);
+                if (solveStatement.executeUpdate() == 0) {
+                    return new int[]{-id, 0};
+                }
+
+                PreparedStatement scoreStatement = connection.prepare(scoreQuery);
+                scoreStatement.setInt(1, cost);
+                scoreStatement.setString(2, username);
+                scoreStatement.executeUpdate();
+                return new int[]{id, cost};
+            });
+
+            if (idAndCost[0] > 0) {
+                leaderboard.addScore(username, idAndCost[1]);
+            }
+            return idAndCost[0];
+        } catch (SQLException e) {
+            System.err.println("Ошибка проверки ответа: " + e);
+        }
         return 0;
     }
 
     public int getScore(String username) {
         try {
             String query = "SELECT score FROM rating WHERE username=?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, username);
+            return read("getScore", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, username);
 
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.getInt("score");
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getInt("score") : 0;
+                }
+            });
         } catch (SQLException ignored) {}
         return 0;
     }
@@ -263,28 +365,40 @@ public class Database {
     public void setScore(String username, int score) {
         try {
             String query = "UPDATE rating SET score=? WHERE username=?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setInt(1, score);
-            statement.setString(2, username);
+            write("setScore", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setInt(1, score);
+                statement.setString(2, username);
 
-            statement.execute();
+                statement.execute();
+                return null;
+            });
+            leaderboard.setScore(username, score);
         } catch (SQLException e) {
             System.err.println("Ошибка изменения пароля: " + e);
         }
     }
 
+    /**
+     * возвращает рейтинг из БД. Для ответов клиентам используется
+     * {@link #getLeaderboard()}, не обращающийся к БД.
+     * @return массивы строк вида {username, score}
+     */
     public ArrayList<String[]> getScoreboard() {
         try {
-            ArrayList<String[]> messages = new ArrayList<String[]>();
-            Statement statement = connection.createStatement();
-            String query = "SELECT * FROM 'rating' ORDER BY score DESC";
-            ResultSet resultSet = statement.executeQuery(query);
+            String query = "SELECT username, score FROM 'rating' ORDER BY score DESC";
+            return read("getScoreboard", connection -> {
+                ArrayList<String[]> messages = new ArrayList<String[]>();
+                PreparedStatement statement = connection.prepare(query);
 
-            while (resultSet.next()) {
-                messages.add(new String[]{String.valueOf(resultSet.getInt("username")),
-                        resultSet.getString("score")});
-            }
-            return messages;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        messages.add(new String[]{resultSet.getString("username"),
+                                resultSet.getString("score")});
+                    }
+                }
+                return messages;
+            });
 
         } catch (SQLException e) {
             System.err.println("Ошибка получения данных: " + e);
@@ -292,6 +406,13 @@ public class Database {
         return null;
     }
 
+    /**
+     * @return таблица лидеров в памяти, обновляемая при начислении очков
+     */
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
     /**
      * возвращает email пользователя
      * @param username имя пльзователя
@@ -300,11 +421,14 @@ public class Database {
     public String getEmail(String username) {
         try {
             String query = "SELECT email FROM users WHERE username=?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, username);
+            return read("getEmail", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, username);
 
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.getString("email");
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getString("email") : null;
+                }
+            });
         } catch (SQLException ignored) {}
         return null;
     }
@@ -317,30 +441,53 @@ public class Database {
     public void setPassword(String username, String password) {
         try {
             String query = "UPDATE users SET password=? WHERE username=?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, password);
-            statement.setString(2, username);
+            write("setPassword", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, password);
+                statement.setString(2, username);
 
-            statement.execute();
+                statement.execute();
+                return null;
+            });
         } catch (SQLException e) {
             System.err.println("Ошибка изменения пароля: " + e);
         }
     }
 
     /**
-     * добавляет сообщение в историю сообщений
+     * добавляет сообщение в историю сообщений. Запись выполняется
+     * журналом отложенной записи и не ожидает диска.
+     * @param roomId комната сообщения, либо {@link RoomRegistry#GLOBAL_ROOM}
      * @param date дата сообщения
      * @param sender имя отправителя
      * @param message сообщение
      */
-    public void addNewMessage(String date, String sender, String message) {
+    public void addNewMessage(String roomId, String date, String sender, String message) {
+        // время постановки в журнал, включая ожидание при его переполнении
+        long start = System.nanoTime();
+        messageJournal.append(roomId, date, sender, message);
+        Metrics.DATABASE.get("addNewMessage").recordSince(start);
+    }
+
+    /**
+     * добавляет пачку сообщений в историю сообщений одной транзакцией
+     * @param messages массивы строк вида {date, sender, message, roomId}
+     */
+    public void addNewMessages(List<String[]> messages) {
         try {
-            String query = "INSERT INTO 'chat_history' ('date', 'sender', 'message') VALUES(?, ?, ?)";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, date);
-            statement.setString(2, sender);
-            statement.setString(3, message);
-            statement.execute();
+            String query = "INSERT INTO 'chat_history' ('date', 'sender', 'message', 'room_id') VALUES(?, ?, ?, ?)";
+            transaction("addNewMessages", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                for (String[] message : messages) {
+                    statement.setString(1, message[0]);
+                    statement.setString(2, message[1]);
+                    statement.setString(3, message[2]);
+                    statement.setString(4, message[3]);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                return null;
+            });
 
         } catch (SQLException e) {
             System.err.println("Ошибка добавления данных: " + e);
@@ -348,22 +495,606 @@ public class Database {
     }
 
     /**
-     * возвращает словарь массивов строк, содержащих данные сообщений
-     * @return {@code Map<Integer, String[]>}
+     * передает последние сообщения истории комнаты в хронологическом порядке
+     * @param roomId комната
+     * @param limit максимальное число сообщений
+     * @param consumer получатель массивов строк вида {date, sender, message}
+     * @return id самого старого переданного сообщения, либо 0, если сообщений нет
      */
-    public Map<Integer, String[]> getAllMessage() {
+    public long getLastMessages(String roomId, int limit, Consumer<String[]> consumer) {
+        return getMessagesBefore(roomId, Long.MAX_VALUE, limit, consumer);
+    }
+
+    /**
+     * передает страницу сообщений истории комнаты, предшествующих заданному,
+     * в хронологическом порядке. Страница включает служебные сообщения
+     * сервера, адресованные всем комнатам. Страница (не больше {@code limit}
+     * строк) собирается под соединением читателя, а получатель вызывается
+     * уже после его возврата в пул: шифрование и отправка клиенту не держат
+     * соединение. Последняя страница дополняется сообщениями этого узла,
+     * еще не записанными журналом.
+     * @param roomId комната
+     * @param beforeId id сообщения, до которого выбирается страница (не включая его)
+     * @param limit максимальное число сообщений
+     * @param consumer получатель массивов строк вида {date, sender, message}
+     * @return id самого старого переданного сообщения, либо 0, если сообщений нет
+     */
+    public long getMessagesBefore(String roomId, long beforeId, int limit, Consumer<String[]> consumer) {
+        // каждая половина объединения читает не больше limit строк по индексу (room_id, id)
+        String query = "SELECT id, date, sender, message FROM (" +
+                "SELECT * FROM (SELECT id, date, sender, message FROM 'chat_history' " +
+                "WHERE room_id = ? AND id < ? ORDER BY id DESC LIMIT ?) " +
+                "UNION ALL " +
+                "SELECT * FROM (SELECT id, date, sender, message FROM 'chat_history' " +
+                "WHERE room_id = ? AND id < ? ORDER BY id DESC LIMIT ?) " +
+                "ORDER BY id DESC LIMIT ?) " +
+                "ORDER BY id ASC";
+        List<String[]> page = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        List<String[]> pending = new ArrayList<>();
         try {
-            Map<Integer, String[]> messages = new HashMap<>();
-            Statement statement = connection.createStatement();
-            String query = "SELECT * FROM 'chat_history'";
-            ResultSet resultSet = statement.executeQuery(query);
+            SqlCall<Void> call = connection -> {
+                page.clear();
+                ids.clear();
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, roomId);
+                statement.setLong(2, beforeId);
+                statement.setInt(3, limit);
+                statement.setString(4, RoomRegistry.GLOBAL_ROOM);
+                statement.setLong(5, beforeId);
+                statement.setInt(6, limit);
+                statement.setInt(7, limit);
+                statement.setFetchSize(limit);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        ids.add(resultSet.getLong("id"));
+                        page.add(new String[]{resultSet.getString("date"),
+                                resultSet.getString("sender"),
+                                resultSet.getString("message")});
+                    }
+                }
+                return null;
+            };
+            if (beforeId == Long.MAX_VALUE) {
+                readWithPending("getMessagesBefore", roomId, call, pending);
+            } else {
+                read("getMessagesBefore", call);
+            }
 
-            while (resultSet.next()) {
-                messages.put(resultSet.getInt("id"), new String[]{resultSet.getString("date"),
-                        resultSet.getString("sender"),
-                        resultSet.getString("message")});
+            // сообщения журнала новее записанных, в страницу попадают последние limit
+            int skip = Math.max(0, page.size() + pending.size() - limit);
+            long oldestId;
+            if (skip < ids.size()) {
+                oldestId = ids.get(skip);
+            } else {
+                // страница целиком из журнала: следующая начнется с последнего записанного
+                oldestId = ids.isEmpty() ? 0 : ids.get(ids.size() - 1) + 1;
             }
-            return messages;
+            page.subList(Math.min(skip, page.size()), page.size()).forEach(consumer);
+            pending.subList(Math.max(0, skip - page.size()), pending.size()).forEach(consumer);
+            return oldestId;
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка получения данных: " + e);
+        }
+        return 0;
+    }
+
+    /**
+     * сохраняет личное сообщение. Запись выполняется сразу, а не
+     * журналом, так как недоставленное сообщение не должно теряться.
+     * @param date дата сообщения
+     * @param sender имя отправителя
+     * @param recipient имя получателя
+     * @param message сообщение
+     * @param delivered {@code true}, если сообщение уже поставлено в очередь получателя
+     * @return id сообщения, либо 0 при ошибке записи
+     */
+    public long addDirectMessage(String date, String sender, String recipient, String message, boolean delivered) {
+        try {
+            String query = "INSERT INTO 'direct_messages' ('conversation', 'date', 'sender', 'recipient', " +
+                    "'message', 'delivered') VALUES(?, ?, ?, ?, ?, ?)";
+            String idQuery = "SELECT last_insert_rowid() AS id";
+            return write("addDirectMessage", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, conversationKey(sender, recipient));
+                statement.setString(2, date);
+                statement.setString(3, sender);
+                statement.setString(4, recipient);
+                statement.setString(5, message);
+                statement.setInt(6, delivered ? 1 : 0);
+                statement.executeUpdate();
+
+                // id читается на том же соединении под блокировкой писателя
+                try (ResultSet resultSet = connection.prepare(idQuery).executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong("id") : 0L;
+                }
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка добавления данных: " + e);
+        }
+        return 0;
+    }
+
+    /**
+     * отмечает одно личное сообщение доставленным
+     * @param id id сообщения
+     */
+    public void markDirectMessageDelivered(long id) {
+        try {
+            String query = "UPDATE 'direct_messages' SET delivered = 1 WHERE id = ?";
+            write("markDirectMessageDelivered", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setLong(1, id);
+                return statement.executeUpdate();
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка изменения данных: " + e);
+        }
+    }
+
+    /**
+     * передает недоставленные личные сообщения получателю по возрастанию id
+     * @param recipient имя получателя
+     * @param afterId id, после которого выбираются сообщения
+     * @param limit максимальное число сообщений
+     * @param consumer получатель массивов строк вида {date, sender, message}
+     * @return id последнего переданного сообщения, либо 0, если сообщений нет
+     */
+    public long getPendingDirectMessages(String recipient, long afterId, int limit, Consumer<String[]> consumer) {
+        String query = "SELECT id, date, sender, message FROM 'direct_messages' " +
+                "WHERE recipient = ? AND delivered = 0 AND id > ? ORDER BY id ASC LIMIT ?";
+        List<String[]> page = new ArrayList<>();
+        try {
+            long result = read("getPendingDirectMessages", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, recipient);
+                statement.setLong(2, afterId);
+                statement.setInt(3, limit);
+
+                long lastId = 0;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        lastId = resultSet.getLong("id");
+                        page.add(new String[]{resultSet.getString("date"),
+                                resultSet.getString("sender"),
+                                resultSet.getString("message")});
+                    }
+                }
+                return lastId;
+            });
+            page.forEach(consumer);
+            return result;
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка получения данных: " + e);
+        }
+        return 0;
+    }
+
+    /**
+     * отмечает недоставленные личные сообщения получателя доставленными
+     * @param recipient имя получателя
+     * @param lastId id последнего отправленного получателю сообщения
+     */
+    public void markDirectMessagesDelivered(String recipient, long lastId) {
+        try {
+            String query = "UPDATE 'direct_messages' SET delivered = 1 WHERE recipient = ? AND delivered = 0 AND id <= ?";
+            write("markDirectMessagesDelivered", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, recipient);
+                statement.setLong(2, lastId);
+                return statement.executeUpdate();
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка изменения данных: " + e);
+        }
+    }
+
+    /**
+     * передает страницу переписки двух пользователей, предшествующую
+     * заданному сообщению, в хронологическом порядке
+     * @param username имя пользователя
+     * @param peer имя собеседника
+     * @param beforeId id сообщения, до которого выбирается страница (не включая его)
+     * @param limit максимальное число сообщений
+     * @param consumer получатель массивов строк вида {date, sender, recipient, message}
+     * @return id самого старого переданного сообщения, либо 0, если сообщений нет
+     */
+    public long getDirectMessagesBefore(String username, String peer, long beforeId, int limit,
+                                        Consumer<String[]> consumer) {
+        String query = "SELECT id, date, sender, recipient, message FROM " +
+                "(SELECT id, date, sender, recipient, message FROM 'direct_messages' " +
+                "WHERE conversation = ? AND id < ? ORDER BY id DESC LIMIT ?) " +
+                "ORDER BY id ASC";
+        List<String[]> page = new ArrayList<>();
+        try {
+            long result = read("getDirectMessagesBefore", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, conversationKey(username, peer));
+                statement.setLong(2, beforeId);
+                statement.setInt(3, limit);
+
+                long oldestId = 0;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        if (oldestId == 0) {
+                            oldestId = resultSet.getLong("id");
+                        }
+                        page.add(new String[]{resultSet.getString("date"),
+                                resultSet.getString("sender"),
+                                resultSet.getString("recipient"),
+                                resultSet.getString("message")});
+                    }
+                }
+                return oldestId;
+            });
+            page.forEach(consumer);
+            return result;
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка получения данных: " + e);
+        }
+        return 0;
+    }
+
+    /**
+     * ключ переписки не зависит от того, кто из двух пользователей отправитель
+     */
+    private static String conversationKey(String first, String second) {
+        return first.compareTo(second) <= 0 ? first + "|" + second : second + "|" + first;
+    }
+
+    /**
+     * захватывает или продлевает аренду. Аренда принадлежит одному узлу,
+     * пока он ее продлевает; после истечения срока ее может захватить
+     * другой узел, работающий с тем же файлом БД.
+     * @param name имя аренды
+     * @param owner имя узла
+     * @param ttlMs срок аренды, мс
+     * @return {@code true}, если аренда принадлежит {@code owner}
+     */
+    public boolean tryAcquireLease(String name, String owner, long ttlMs) {
+        try {
+            String query = "INSERT INTO cluster_leases (name, owner, expires_at) VALUES(?, ?, ?) " +
+                    "ON CONFLICT(name) DO UPDATE SET owner = excluded.owner, expires_at = excluded.expires_at " +
+                    "WHERE cluster_leases.owner = excluded.owner OR cluster_leases.expires_at < ?";
+            long now = System.currentTimeMillis();
+            return write("tryAcquireLease", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, name);
+                statement.setString(2, owner);
+                statement.setLong(3, now + ttlMs);
+                statement.setLong(4, now);
+                return statement.executeUpdate() > 0;
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка изменения данных: " + e);
+        }
+        return false;
+    }
+
+    /**
+     * освобождает аренду, если она принадлежит узлу
+     * @param name имя аренды
+     * @param owner имя узла
+     */
+    public void releaseLease(String name, String owner) {
+        try {
+            String query = "DELETE FROM cluster_leases WHERE name = ? AND owner = ?";
+            write("releaseLease", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, name);
+                statement.setString(2, owner);
+                return statement.executeUpdate();
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка изменения данных: " + e);
+        }
+    }
+
+    /**
+     * захватывает владение сессией пользователя. Пользователь, уже
+     * вошедший на другом узле, не может быть захвачен, пока тот узел
+     * продлевает свою аренду {@link Cluster#NODE_LEASE_PREFIX}; на своем
+     * узле сессию перехватывает новая, так как единственность сессии
+     * внутри узла обеспечивает {@link SessionRegistry}.
+     * @param username имя пользователя
+     * @param node имя узла
+     * @param sessionId идентификатор сессии
+     * @return {@code true}, если сессия принадлежит {@code sessionId}
+     */
+    public boolean tryClaimSession(String username, String node, String sessionId) {
+        try {
+            String query = "INSERT INTO session_owners (username, node, session_id) VALUES(?, ?, ?) " +
+                    "ON CONFLICT(username) DO UPDATE SET node = excluded.node, session_id = excluded.session_id " +
+                    "WHERE session_owners.node = excluded.node OR NOT EXISTS (SELECT 1 FROM cluster_leases " +
+                    "WHERE cluster_leases.name = ? || session_owners.node AND cluster_leases.expires_at >= ?)";
+            long now = System.currentTimeMillis();
+            return write("tryClaimSession", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, username);
+                statement.setString(2, node);
+                statement.setString(3, sessionId);
+                statement.setString(4, Cluster.NODE_LEASE_PREFIX);
+                statement.setLong(5, now);
+                return statement.executeUpdate() > 0;
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка изменения данных: " + e);
+        }
+        return false;
+    }
+
+    /**
+     * освобождает сессию пользователя, если ее еще не перехватила другая
+     * @param username имя пользователя
+     * @param sessionId идентификатор сессии
+     */
+    public void releaseSession(String username, String sessionId) {
+        try {
+            String query = "DELETE FROM session_owners WHERE username = ? AND session_id = ?";
+            write("releaseSession", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, username);
+                statement.setString(2, sessionId);
+                return statement.executeUpdate();
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка изменения данных: " + e);
+        }
+    }
+
+    /**
+     * освобождает все сессии узла
+     * @param node имя узла
+     */
+    public void releaseSessions(String node) {
+        try {
+            String query = "DELETE FROM session_owners WHERE node = ?";
+            write("releaseSessions", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, node);
+                return statement.executeUpdate();
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка изменения данных: " + e);
+        }
+    }
+
+    /**
+     * перечитывает очки пользователя из БД в рейтинг. Используется,
+     * когда очки изменил другой узел кластера.
+     * @param username имя пользователя
+     */
+    public void reloadScore(String username) {
+        leaderboard.setScore(username, getScore(username));
+    }
+
+    /**
+     * @return id последнего сообщения истории, записанного в БД, либо 0,
+     * если история пуста. Сообщения, еще не записанные журналом, id не
+     * имеют и не учитываются.
+     */
+    public long getLastMessageId() {
+        try {
+            String query = "SELECT MAX(id) AS id FROM chat_history";
+            return read("getLastMessageId", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong("id") : 0;
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println("Ошибка получения данных: " + e);
+        }
+        return 0;
+    }
+
+    /**
+     * выполняет чтение истории и собирает сообщения комнаты и служебные
+     * сообщения сервера, еще не записанные журналом. Если журнал записал
+     * пачку во время чтения, чтение повторяется: иначе ее сообщения
+     * попали бы в результат дважды. Журнал при этом не записывается
+     * принудительно, чтение не ждет диска.
+     * @param operation имя операции для метрик
+     * @param roomId комната
+     * @param call чтение истории; может выполняться несколько раз
+     * @param pending список, в который добавляются массивы строк вида {date, sender, message}
+     * @return результат последнего чтения
+     */
+    private <T> T readWithPending(String operation, String roomId, SqlCall<T> call,
+                                  List<String[]> pending) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            MessageJournal.Pending snapshot = messageJournal.pending();
+            T result = read(operation, call);
+            if (snapshot.isCurrent() || attempt == PENDING_READ_ATTEMPTS) {
+                for (String[] message : snapshot.getMessages()) {
+                    if (message[3].equals(roomId) || message[3].equals(RoomRegistry.GLOBAL_ROOM)) {
+                        pending.add(new String[]{message[0], message[1], message[2]});
+                    }
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * передает сообщения истории комнаты, следующие за заданным, в
+     * хронологическом порядке, включая служебные сообщения сервера и
+     * сообщения этого узла, еще не записанные журналом
+     * @param roomId комната
+     * @param afterId id сообщения, после которого выбираются сообщения
+     * @param limit максимальное число сообщений
+     * @param consumer получатель массивов строк вида {date, sender, message}
+     * @return id самого нового переданного сообщения, записанного в БД,
+     * либо 0, если таких сообщений нет
+     */
+    public long getMessagesAfter(String roomId, long afterId, int limit, Consumer<String[]> consumer) {
+        String query = "SELECT id, date, sender, message FROM 'chat_history' " +
+                "WHERE room_id IN (?, ?) AND id > ? ORDER BY id ASC LIMIT ?";
+        List<String[]> page = new ArrayList<>();
+        List<String[]> pending = new ArrayList<>();
+        try {
+            long result = readWithPending("getMessagesAfter", roomId, connection -> {
+                page.clear();
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, roomId);
+                statement.setString(2, RoomRegistry.GLOBAL_ROOM);
+                statement.setLong(3, afterId);
+                statement.setInt(4, limit);
+
+                long newestId = 0;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        newestId = resultSet.getLong("id");
+                        page.add(new String[]{resultSet.getString("date"),
+                                resultSet.getString("sender"),
+                                resultSet.getString("message")});
+                    }
+                }
+                return newestId;
+            }, pending);
+            page.forEach(consumer);
+            pending.subList(0, Math.max(0, Math.min(pending.size(), limit - page.size()))).forEach(consumer);
+            return result;
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка получения данных: " + e);
+        }
+        return 0;
+    }
+
+    /**
+     * сохраняет токен возобновления сессии и удаляет истекшие токены.
+     * Срок токена продлевается только при отключении, поэтому токены
+     * пользователей, сессия которых еще открыта на каком-либо узле,
+     * не удаляются, даже если срок, выставленный при входе, прошел.
+     * @param tokenHash хэш токена
+     * @param username имя пользователя
+     * @param roomId комната сессии
+     * @param lastId id последнего сообщения истории, известного клиенту
+     * @param expiresAt время истечения токена, мс с начала эпохи
+     */
+    public void createResumeToken(String tokenHash, String username, String roomId, long lastId, long expiresAt) {
+        try {
+            String deleteQuery = "DELETE FROM resume_tokens WHERE expires_at < ? " +
+                    "AND username NOT IN (SELECT username FROM session_owners)";
+            String insertQuery = "INSERT INTO resume_tokens (token_hash, username, room_id, last_id, expires_at) " +
+                    "VALUES(?, ?, ?, ?, ?)";
+            transaction("createResumeToken", connection -> {
+                PreparedStatement deleteStatement = connection.prepare(deleteQuery);
+                deleteStatement.setLong(1, System.currentTimeMillis());
+                deleteStatement.executeUpdate();
+
+                PreparedStatement insertStatement = connection.prepare(insertQuery);
+                insertStatement.setString(1, tokenHash);
+                insertStatement.setString(2, username);
+                insertStatement.setString(3, roomId);
+                insertStatement.setLong(4, lastId);
+                insertStatement.setLong(5, expiresAt);
+                return insertStatement.executeUpdate();
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка добавления данных: " + e);
+        }
+    }
+
+    /**
+     * обновляет комнату и последнее сообщение сессии и продлевает токен.
+     * Вызывается при отключении клиента. Последнее сообщение только
+     * увеличивается.
+     * @param tokenHash хэш токена
+     * @param roomId комната сессии
+     * @param lastId id последнего сообщения истории, отправленного клиенту
+     * @param expiresAt новое время истечения токена, мс с начала эпохи
+     */
+    public void updateResumeToken(String tokenHash, String roomId, long lastId, long expiresAt) {
+        try {
+            String query = "UPDATE resume_tokens SET room_id = ?, last_id = MAX(last_id, ?), expires_at = ? " +
+                    "WHERE token_hash = ?";
+            write("updateResumeToken", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, roomId);
+                statement.setLong(2, lastId);
+                statement.setLong(3, expiresAt);
+                statement.setString(4, tokenHash);
+                return statement.executeUpdate();
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка изменения данных: " + e);
+        }
+    }
+
+    /**
+     * проверяет токен возобновления сессии, не удаляя его
+     * @param tokenHash хэш токена
+     * @param username имя пользователя, предъявившего токен
+     * @return {@code true}, если токен действителен и выдан этому пользователю
+     */
+    public boolean isValidResumeToken(String tokenHash, String username) {
+        try {
+            String query = "SELECT 1 FROM resume_tokens WHERE token_hash = ? AND username = ? AND expires_at >= ?";
+            return read("isValidResumeToken", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, tokenHash);
+                statement.setString(2, username);
+                statement.setLong(3, System.currentTimeMillis());
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next();
+                }
+            });
+
+        } catch (SQLException e) {
+            System.err.println("Ошибка получения данных: " + e);
+        }
+        return false;
+    }
+
+    /**
+     * проверяет и удаляет токен возобновления сессии
+     * @param tokenHash хэш токена
+     * @param username имя пользователя, предъявившего токен
+     * @return массив строк вида {roomId, lastId}, либо {@code null}, если
+     * токен не найден, истек или выдан другому пользователю
+     */
+    public String[] consumeResumeToken(String tokenHash, String username) {
+        try {
+            String selectQuery = "SELECT room_id, last_id FROM resume_tokens " +
+                    "WHERE token_hash = ? AND username = ? AND expires_at >= ?";
+            String deleteQuery = "DELETE FROM resume_tokens WHERE token_hash = ?";
+            return transaction("consumeResumeToken", connection -> {
+                PreparedStatement selectStatement = connection.prepare(selectQuery);
+                selectStatement.setString(1, tokenHash);
+                selectStatement.setString(2, username);
+                selectStatement.setLong(3, System.currentTimeMillis());
+
+                String[] session;
+                try (ResultSet resultSet = selectStatement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+                    session = new String[]{resultSet.getString("room_id"),
+                            String.valueOf(resultSet.getLong("last_id"))};
+                }
+
+                PreparedStatement deleteStatement = connection.prepare(deleteQuery);
+                deleteStatement.setString(1, tokenHash);
+                deleteStatement.executeUpdate();
+                return session;
+            });
 
         } catch (SQLException e) {
             System.err.println("Ошибка получения данных: " + e);
@@ -378,12 +1109,15 @@ public class Database {
      */
     public boolean userInChat(String username) {
         try {
-            String query = "SELECT sender FROM chat_history WHERE sender=?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, username);
+            String query = "SELECT sender FROM chat_history WHERE sender=? LIMIT 1";
+            return read("userInChat", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, username);
 
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.getString("sender").equals(username);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() && resultSet.getString("sender").equals(username);
+                }
+            });
         } catch (SQLException ignored) {}
         return false;
     }
@@ -391,24 +1125,42 @@ public class Database {
     public boolean userNotRegistered(String username) {
         try {
             String query = "SELECT EXISTS(SELECT username FROM users WHERE username=?) AS count";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, username);
-
-            ResultSet resultSet = statement.executeQuery();
+            return read("userNotRegistered", connection -> {
+                PreparedStatement statement = connection.prepare(query);
+                statement.setString(1, username);
 
-            return resultSet.getInt("count") == 0;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() && resultSet.getInt("count") == 0;
+                }
+            });
         } catch (SQLException ignored) {}
         return false;
     }
 
     /**
-     * закрывает соединение
+     * закрывает соединения
      */
     public void close() {
         try {
-            connection.close();
+            if (messageJournal != null) {
+                messageJournal.close();
+            }
+            writeLock.lock();
+            try {
+                writer.close();
+            } finally {
+                writeLock.unlock();
+            }
+            for (int i = 0; i < Math.max(1, ServerConfig.DB_READERS); i++) {
+                CachedConnection reader = readers.poll(ServerConfig.SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (reader != null) {
+                    reader.close();
+                }
+            }
         } catch (SQLException e) {
             System.err.println("Ошибка закрытия БД: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
 
     }
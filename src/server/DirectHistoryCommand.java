@@ -0,0 +1,38 @@
+package server;
+
+/**
+ * Команда {@code dm_history|username[|id]} - страница переписки с
+ * пользователем, старше сообщения {@code id}, либо последняя страница.
+ * Ответ: строки {@code dm_log|date|sender|recipient|text} и курсор
+ * {@code dm_cursor|username|id}. Выполняется только после входа.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class DirectHistoryCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "dm_history";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        if (!client.isSignedIn()) {
+            return true;
+        }
+        String peer = request.requireField(0);
+        long beforeId = Long.MAX_VALUE;
+        if (request.getField(1) != null) {
+            try {
+                beforeId = Long.parseLong(request.getField(1));
+            } catch (NumberFormatException e) {
+                client.sendMessage("|SERVER|invalid dm_history request");
+                return true;
+            }
+        }
+
+        client.sendDirectHistoryPage(peer, beforeId);
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package server;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Команда {@code dm|username|text} - личное сообщение. Сессия
+ * получателя находится в {@link SessionRegistry} по имени, и сообщение
+ * шифруется только для получателя и отправителя. Получатель в сети
+ * получает {@code dm|date|sender|text} сразу, в том числе через другой
+ * узел кластера, иначе - при следующем
+ * входе. Отправитель получает {@code dm_sent|username|date|online} или
+ * {@code dm_sent|username|date|offline}. Выполняется только после входа.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class DirectMessageCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "dm";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        if (!client.isSignedIn()) {
+            return true;
+        }
+        String recipientUsername = request.requireField(0);
+        String text = request.requireRemainder(1);
+
+        ClientHandler recipient = ClientHandler.sessionRegistry.get(recipientUsername);
+        String recipientNode = recipient == null ? ClientHandler.cluster.getNode(recipientUsername) : null;
+        // базу спрашиваем, только если получателя нет в сети
+        if (recipient == null && recipientNode == null && client.getDb().userNotRegistered(recipientUsername)) {
+            client.sendMessage("|SERVER|unknown user " + recipientUsername);
+            return true;
+        }
+
+        SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yy H:mm");
+        String date = formatter.format(new Date());
+        String senderUsername = client.getClientUsername();
+
+        if (recipientNode != null) {
+            // сообщение сохраняется до передачи по шине, поэтому сбой шины не теряет его:
+            // узел получателя только доставляет его и отмечает доставленным
+            long id = client.getDb().addDirectMessage(date, senderUsername, recipientUsername, text, false);
+            boolean relayed = id != 0 &&
+                    ClientHandler.cluster.publishDirect(recipientNode, id, date, senderUsername, recipientUsername, text);
+            client.sendMessage("dm_sent|" + recipientUsername + "|" + date + "|" + (relayed ? "online" : "offline"));
+            return true;
+        }
+
+        boolean delivered = recipient != null &&
+                recipient.offerMessage(client.getPgp(), "dm|" + date + "|" + senderUsername + "|" + text);
+        client.getDb().addDirectMessage(date, senderUsername, recipientUsername, text, delivered);
+        client.sendMessage("dm_sent|" + recipientUsername + "|" + date + "|" + (delivered ? "online" : "offline"));
+        return true;
+    }
+}
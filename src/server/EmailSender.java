@@ -7,58 +7,99 @@ import java.util.Properties;
 
 /**
  * Класс, позволяющий работать с email
+ * <p>
+ * Хранит одно авторизованное соединение с SMTP сервером и
+ * переиспользует его для всех писем, переподключаясь при обрыве.
+ * Экземпляр не потокобезопасен.
  *
  * @author Kirill Chezlov
- * @version 1.0
+ * @version 1.1
  */
 public class EmailSender {
-    private final String serverEmailAddress = System.getenv("EMAIL_ADDR");
-    private final String password = System.getenv("EMAIL_PASSWORD");
-    private final String emailAddress;
+    private final String serverEmailAddress;
+    private final String password;
     private final Session session;
+    private Transport transport;
+
+    /**
+     * конструктор класса {@code EmailSender} с настройками SMTP из {@link ServerConfig}
+     */
+    public EmailSender() {
+        this(ServerConfig.SMTP_HOST, ServerConfig.SMTP_PORT, ServerConfig.SMTP_STARTTLS,
+                System.getenv("EMAIL_ADDR"), System.getenv("EMAIL_PASSWORD"));
+    }
 
     /**
      * конструктор класса {@code EmailSender}.
-     * создает сессию и подкличается к серверу почтового хоста
-     * @param emailAddress email получателя
+     * создает сессию для работы с сервером почтового хоста
+     * @param host адрес SMTP сервера
+     * @param port порт SMTP сервера
+     * @param startTls использовать ли STARTTLS
+     * @param serverEmailAddress адрес отправителя, он же логин
+     * @param password пароль отправителя, при {@code null} авторизация не выполняется
      */
-    public EmailSender(String emailAddress) {
-        this.emailAddress = emailAddress;
+    public EmailSender(String host, int port, boolean startTls, String serverEmailAddress, String password) {
+        this.serverEmailAddress = serverEmailAddress;
+        this.password = password;
         Properties prop = new Properties();
-        prop.put("mail.smtp.host", "smtp.gmail.com");
-        prop.put("mail.smtp.port", "587");
-        prop.put("mail.smtp.auth", "true");
-        prop.put("mail.smtp.starttls.enable", "true");
+        prop.put("mail.smtp.host", host);
+        prop.put("mail.smtp.port", String.valueOf(port));
+        prop.put("mail.smtp.auth", String.valueOf(password != null));
+        prop.put("mail.smtp.starttls.enable", String.valueOf(startTls));
+        prop.put("mail.smtp.connectiontimeout", "10000");
+        prop.put("mail.smtp.timeout", "10000");
 
-        session = Session.getInstance(prop,
-                new javax.mail.Authenticator() {
-                    protected PasswordAuthentication getPasswordAuthentication() {
-                        return new PasswordAuthentication(serverEmailAddress, password);
-                    }
-                });
+        session = Session.getInstance(prop);
     }
 
     /**
-     * отправляет письмо пользователю
+     * отправляет письмо, подключаясь к серверу, если соединения еще нет
+     * или оно было разорвано
+     * @param emailAddress email получателя
      * @param subj тема письма
      * @param text сообщение
      */
-    public void sendMessage(String subj, String text) {
-        try {
+    public void sendMessage(String emailAddress, String subj, String text) throws MessagingException {
+        Message message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(serverEmailAddress));
+        message.setRecipients(
+                Message.RecipientType.TO,
+                InternetAddress.parse(emailAddress)
+        );
+        message.setSubject(subj);
+        message.setText(text);
+        message.saveChanges();
 
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(System.getenv("EMAIL_ADDR")));
-            message.setRecipients(
-                    Message.RecipientType.TO,
-                    InternetAddress.parse(emailAddress)
-            );
-            message.setSubject(subj);
-            message.setText(text);
+        try {
+            getTransport().sendMessage(message, message.getAllRecipients());
+        } catch (MessagingException e) {
+            // соединение могло быть закрыто сервером, следующая попытка подключится заново
+            close();
+            throw e;
+        }
+    }
 
-            Transport.send(message);
+    private Transport getTransport() throws MessagingException {
+        if (transport == null || !transport.isConnected()) {
+            close();
+            transport = session.getTransport("smtp");
+            transport.connect(serverEmailAddress, password);
+        }
+        return transport;
+    }
 
-        } catch (MessagingException e) {
-            e.printStackTrace();
+    /**
+     * закрывает соединение с SMTP сервером
+     */
+    public void close() {
+        if (transport == null) {
+            return;
+        }
+        try {
+            transport.close();
+        } catch (MessagingException ignored) {
+        } finally {
+            transport = null;
         }
     }
 }
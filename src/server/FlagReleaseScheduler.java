@@ -0,0 +1,127 @@
+package server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Планировщик публикации флагов, единый для всего сервера.
+ * <p>
+ * Неопубликованные флаги рассылаются по одному с заданным интервалом.
+ * Все публикации выполняются в одном потоке, поэтому счетчик
+ * отправленных флагов не изменяется параллельно. Когда флаги
+ * заканчиваются, планировщик ничего не делает до следующего вызова
+ * {@link #trigger()}, например после добавления нового флага.
+ * <p>
+ * В кластере флаги публикует только узел, владеющий арендой
+ * {@value #LEASE_NAME} в общей БД. Остальные узлы проверяют аренду с
+ * тем же интервалом и берут публикацию на себя, если владелец перестал
+ * ее продлевать.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class FlagReleaseScheduler {
+
+    public static final String LEASE_NAME = "flag_release";
+
+    private final Database db;
+    private final String nodeId;
+    private final long leaseMs;
+    private final PGP pgp = new PGP();
+    private final long initialDelayMs;
+    private final long intervalMs;
+    private final ScheduledExecutorService executor;
+    private boolean releasing = false;
+
+    /**
+     * Конструктор класса {@code FlagReleaseScheduler}.
+     * @param db база данных с флагами
+     * @param initialDelayMs задержка перед публикацией первого флага после запуска, мс
+     * @param intervalMs интервал между публикациями флагов, мс
+     * @param nodeId имя узла, которым захватывается аренда
+     * @param leaseMs срок аренды публикации, мс
+     */
+    public FlagReleaseScheduler(Database db, long initialDelayMs, long intervalMs, String nodeId, long leaseMs) {
+        this.db = db;
+        this.nodeId = nodeId;
+        // аренда переживает интервал, иначе она истекала бы между публикациями владельца
+        this.leaseMs = Math.max(leaseMs, 2 * intervalMs);
+        this.initialDelayMs = initialDelayMs;
+        this.intervalMs = intervalMs;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flag-release");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * создает планировщик по настройкам из {@link ServerConfig}
+     * @param db база данных с флагами
+     * @return {@code FlagReleaseScheduler}
+     */
+    public static FlagReleaseScheduler fromConfig(Database db) {
+        return new FlagReleaseScheduler(db, ServerConfig.FLAG_RELEASE_DELAY_MS, ServerConfig.FLAG_RELEASE_INTERVAL_MS,
+                ServerConfig.NODE_ID, ServerConfig.FLAG_LEASE_MS);
+    }
+
+    /**
+     * запускает публикацию с начальной задержкой
+     */
+    public void start() {
+        schedule(initialDelayMs);
+    }
+
+    /**
+     * запускает публикацию неопубликованных флагов, если она еще не идет
+     */
+    public void trigger() {
+        schedule(0);
+    }
+
+    /**
+     * останавливает планировщик и освобождает аренду, чтобы публикацию
+     * сразу мог взять другой узел
+     */
+    public void close() {
+        executor.shutdownNow();
+        db.releaseLease(LEASE_NAME, nodeId);
+    }
+
+    private void schedule(long delayMs) {
+        try {
+            executor.execute(() -> {
+                if (!releasing) {
+                    releasing = true;
+                    executor.schedule(this::releaseNext, delayMs, TimeUnit.MILLISECONDS);
+                }
+            });
+        } catch (RejectedExecutionException ignored) {}
+    }
+
+    /**
+     * публикует следующий флаг и планирует публикацию следующего
+     */
+    private void releaseNext() {
+        try {
+            int id = db.getSentFlagCount() + 1;
+            if (id > db.getFlagCount()) {
+                releasing = false;
+                return;
+            }
+            if (!db.tryAcquireLease(LEASE_NAME, nodeId, leaseMs)) {
+                executor.schedule(this::releaseNext, intervalMs, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            ClientHandler.broadcastMessage(db, pgp, "SERVER", db.getCryptedFlag(id), true);
+            db.setSentFlagCount(id);
+            executor.schedule(this::releaseNext, intervalMs, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            releasing = false;
+            System.out.println("Flag sending failed!");
+        }
+    }
+}
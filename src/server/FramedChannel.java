@@ -0,0 +1,92 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Кадровый протокол обмена сообщениями.
+ * <p>
+ * Соединение начинается с сигнатуры {@link #MAGIC}, которую
+ * отправляют обе стороны. Далее каждое сообщение передается кадром:
+ * длина полезной нагрузки (4 байта, big-endian), тип кадра (1 байт) и
+ * полезная нагрузка в UTF-8. Кадры больше заданного размера
+ * отклоняются до чтения полезной нагрузки.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class FramedChannel implements MessageChannel {
+
+    /** сигнатура кадрового протокола версии 1 */
+    static final byte[] MAGIC = {'C', 'H', 'F', '1'};
+
+    /** кадр с текстовым сообщением */
+    public static final byte TYPE_MESSAGE = 1;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final int maxFrameBytes;
+    private boolean handshakeDone = false;
+
+    /**
+     * Конструктор класса {@code FramedChannel}.
+     * @param in поток ввода клиента
+     * @param out поток вывода клиента
+     * @param maxFrameBytes максимальный размер полезной нагрузки входящего кадра
+     */
+    public FramedChannel(InputStream in, OutputStream out, int maxFrameBytes) throws IOException {
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.maxFrameBytes = maxFrameBytes;
+
+        this.out.write(MAGIC);
+        this.out.flush();
+    }
+
+    @Override
+    public String read() throws IOException {
+        if (!handshakeDone) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!java.util.Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Неверная сигнатура протокола");
+            }
+            handshakeDone = true;
+        }
+
+        int length = in.readInt();
+        byte type = in.readByte();
+        if (length < 0 || length > maxFrameBytes) {
+            throw new IOException("Размер кадра " + length + " превышает допустимый " + maxFrameBytes);
+        }
+        if (type != TYPE_MESSAGE) {
+            throw new IOException("Неизвестный тип кадра: " + type);
+        }
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(String message) throws IOException {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(payload.length);
+        out.writeByte(TYPE_MESSAGE);
+        out.write(payload);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            out.close();
+        }
+    }
+}
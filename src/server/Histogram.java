@@ -0,0 +1,102 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма с фиксированными границами корзин для экспорта в формате
+ * Prometheus.
+ * <p>
+ * Значения записываются в исходных единицах (например, наносекундах)
+ * и переводятся в единицы экспорта множителем только при выводе.
+ * Запись не блокируется: каждая корзина - отдельный {@link LongAdder}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class Histogram {
+
+    private final long[] bounds;
+    private final double scale;
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Конструктор класса {@code Histogram}.
+     * @param bounds верхние границы корзин по возрастанию, в исходных единицах
+     * @param scale множитель перевода исходных единиц в единицы экспорта
+     */
+    public Histogram(long[] bounds, double scale) {
+        this.bounds = bounds;
+        this.scale = scale;
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param value значение в исходных единицах
+     */
+    public void record(long value) {
+        int i = 0;
+        while (i < bounds.length && value > bounds[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * записывает время, прошедшее с {@code startNanos}
+     * @param startNanos значение {@link System#nanoTime()} в начале замера
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return среднее значение в исходных единицах
+     */
+    public long getAverage() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    /**
+     * выводит гистограмму в текстовом формате Prometheus
+     * @param out вывод
+     * @param name имя метрики
+     * @param labels метки вида {@code name="value"}, либо пустая строка
+     */
+    void writePrometheus(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"")
+                    .append(bounds[i] * scale).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[bounds.length].sum();
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(getSum() * scale).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,33 @@
+package server;
+
+/**
+ * Команда {@code history_before|id} - запрос страницы сообщений старше
+ * {@code id}. Выполняется только после входа.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class HistoryBeforeCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "history_before";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        if (!client.isSignedIn()) {
+            return true;
+        }
+        long beforeId;
+        try {
+            beforeId = Long.parseLong(request.requireField(0));
+        } catch (NumberFormatException e) {
+            client.sendMessage("|SERVER|invalid history request");
+            return true;
+        }
+
+        client.sendHistoryPage(beforeId);
+        return true;
+    }
+}
@@ -0,0 +1,73 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Упаковка страницы истории сообщений в один сжатый кадр.
+ * <p>
+ * Кадр содержит число сообщений и сами сообщения в виде длины и байтов
+ * UTF-8, сжатые Deflate и закодированные в Base64. Такой кадр
+ * шифруется и отправляется клиенту один раз вместо отдельного
+ * шифрования и отправки каждого сообщения.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class HistoryBundle {
+
+    /** префикс служебного сообщения с кадром истории */
+    public static final String PREFIX = "history_bundle|";
+
+    private HistoryBundle() {}
+
+    /**
+     * упаковывает сообщения в кадр
+     * @param messages сообщения в хронологическом порядке
+     * @return String в Base64
+     */
+    public static String encode(List<String> messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // переданный потоку Deflater поток не освобождает, его память вне кучи
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            out.writeInt(messages.size());
+            for (String message : messages) {
+                byte[] data = message.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * распаковывает кадр, используется клиентом
+     * @param bundle кадр в Base64
+     * @return сообщения в хронологическом порядке
+     */
+    public static List<String> decode(String bundle) throws IOException {
+        byte[] compressed = Base64.getDecoder().decode(bundle);
+        try (DataInputStream in = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(compressed)))) {
+            int count = in.readInt();
+            List<String> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                messages.add(new String(data, StandardCharsets.UTF_8));
+            }
+            return messages;
+        }
+    }
+}
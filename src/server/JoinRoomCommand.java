@@ -0,0 +1,34 @@
+package server;
+
+/**
+ * Команда {@code join|room} - переход в комнату. Комната создается при
+ * первом входе. В ответ отправляются {@code room_joined|room}, страница
+ * истории комнаты и курсор. Выполняется только после входа.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class JoinRoomCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "join";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        if (!client.isSignedIn()) {
+            return true;
+        }
+        String room = request.requireField(0);
+        if (!RoomRegistry.isValidName(room)) {
+            client.sendMessage("|SERVER|invalid room name");
+            return true;
+        }
+
+        client.joinRoom(room);
+        client.sendMessage("room_joined|" + room);
+        client.sendChatHistory();
+        return true;
+    }
+}
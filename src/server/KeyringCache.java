@@ -0,0 +1,178 @@
+package server;
+
+import com.didisoft.pgp.KeyPairInformation;
+import com.didisoft.pgp.KeyStore;
+import com.didisoft.pgp.PGPException;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш разобранных PGP ключей, хранящихся в памяти.
+ * <p>
+ * Ключи загружаются из файлов при первом обращении и хранятся по имени
+ * пользователя-владельца. При превышении емкости вытесняются давно не
+ * использовавшиеся ключи (LRU). Публичные и приватные ключи хранятся
+ * раздельно.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class KeyringCache {
+
+    /**
+     * Разобранный ключ: хранилище в памяти с единственным ключом и его id.
+     */
+    public static final class CachedKey {
+        private final KeyStore keyStore;
+        private final long keyId;
+
+        private CachedKey(KeyStore keyStore, long keyId) {
+            this.keyStore = keyStore;
+            this.keyId = keyId;
+        }
+
+        public KeyStore getKeyStore() {
+            return keyStore;
+        }
+
+        public long getKeyId() {
+            return keyId;
+        }
+    }
+
+    private final Map<String, CachedKey> publicKeys;
+    private final Map<String, CachedKey> privateKeys;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Конструктор класса {@code KeyringCache}.
+     * @param capacity максимальное число ключей каждого вида в кэше
+     */
+    public KeyringCache(int capacity) {
+        publicKeys = createLruMap(capacity);
+        privateKeys = createLruMap(capacity);
+    }
+
+    /**
+     * возвращает публичный ключ пользователя, загружая его из файла при промахе
+     * @param username имя пользователя-владельца ключа
+     * @param filepath путь к файлу ключа
+     * @return {@code CachedKey}
+     */
+    public CachedKey getPublicKey(String username, String filepath) throws PGPException, IOException {
+        return get(publicKeys, username, filepath, null);
+    }
+
+    /**
+     * возвращает приватный ключ пользователя, загружая его из файла при промахе
+     * @param username имя пользователя-владельца ключа
+     * @param filepath путь к файлу ключа
+     * @param password пароль приватного ключа
+     * @return {@code CachedKey}
+     */
+    public CachedKey getPrivateKey(String username, String filepath, String password) throws PGPException, IOException {
+        return get(privateKeys, username, filepath, password);
+    }
+
+    /**
+     * удаляет публичный ключ пользователя из кэша, например после
+     * получения от клиента нового ключа
+     * @param username имя пользователя-владельца ключа
+     */
+    public void invalidatePublicKey(String username) {
+        synchronized (publicKeys) {
+            publicKeys.remove(username);
+        }
+    }
+
+    /**
+     * удаляет приватный ключ пользователя из кэша
+     * @param username имя пользователя-владельца ключа
+     */
+    public void invalidatePrivateKey(String username) {
+        synchronized (privateKeys) {
+            privateKeys.remove(username);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return число ключей в кэше
+     */
+    public int size() {
+        synchronized (publicKeys) {
+            synchronized (privateKeys) {
+                return publicKeys.size() + privateKeys.size();
+            }
+        }
+    }
+
+    private CachedKey get(Map<String, CachedKey> keys, String username, String filepath, String password)
+            throws PGPException, IOException {
+        synchronized (keys) {
+            CachedKey cachedKey = keys.get(username);
+            if (cachedKey != null) {
+                hits.increment();
+                return cachedKey;
+            }
+        }
+        misses.increment();
+
+        // разбор ключа выполняется вне блокировки, чтобы не задерживать другие сессии
+        CachedKey loadedKey = load(filepath, password);
+
+        synchronized (keys) {
+            CachedKey cachedKey = keys.putIfAbsent(username, loadedKey);
+            return cachedKey != null ? cachedKey : loadedKey;
+        }
+    }
+
+    private CachedKey load(String filepath, String password) throws PGPException, IOException {
+        KeyStore keyStore = new KeyStore();
+        KeyPairInformation[] keyInfo;
+
+        try (InputStream keyFile = new FileInputStream(filepath)) {
+            if (password == null) {
+                keyInfo = keyStore.importPublicKey(keyFile);
+            } else {
+                keyInfo = keyStore.importPrivateKey(keyFile, password);
+            }
+        }
+
+        if (keyInfo == null || keyInfo.length == 0) {
+            throw new IOException("Файл не содержит ключей: " + filepath);
+        }
+        return new CachedKey(keyStore, keyInfo[0].getKeyID());
+    }
+
+    private Map<String, CachedKey> createLruMap(int capacity) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedKey> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+}
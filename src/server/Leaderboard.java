@@ -0,0 +1,167 @@
+package server;
+
+import java.util.*;
+
+/**
+ * Таблица лидеров, хранящаяся в памяти.
+ * <p>
+ * Рейтинг поддерживается отсортированным и обновляется при изменении
+ * очков, поэтому команда {@code !rating} не обращается к БД. Для
+ * чтения используется неизменяемый снимок, который пересобирается
+ * только после изменения очков, так что одновременные запросы
+ * рейтинга не блокируют друг друга.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class Leaderboard {
+
+    /**
+     * Позиция игрока в рейтинге.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        final String username;
+        final int score;
+
+        Entry(String username, int score) {
+            this.username = username;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byScore = Integer.compare(other.score, score);
+            return byScore != 0 ? byScore : username.compareTo(other.username);
+        }
+    }
+
+    /**
+     * Неизменяемый снимок рейтинга.
+     */
+    private static final class Snapshot {
+        final Entry[] entries;
+        final Map<String, Integer> ranks;
+
+        Snapshot(Collection<Entry> ranking) {
+            entries = ranking.toArray(new Entry[0]);
+            ranks = new HashMap<>(entries.length * 2);
+            for (int i = 0; i < entries.length; i++) {
+                ranks.put(entries[i].username, i + 1);
+            }
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> ranking = new TreeSet<>();
+    private volatile Snapshot snapshot;
+
+    /**
+     * загружает рейтинг целиком, например из БД при запуске
+     * @param scoreboard массивы строк вида {username, score}
+     */
+    public synchronized void load(List<String[]> scoreboard) {
+        entries.clear();
+        ranking.clear();
+        for (String[] row : scoreboard) {
+            setScore(row[0], Integer.parseInt(row[1]));
+        }
+    }
+
+    /**
+     * устанавливает очки игрока, добавляя его в рейтинг при необходимости
+     * @param username имя игрока
+     * @param score очки
+     */
+    public synchronized void setScore(String username, int score) {
+        Entry previous = entries.get(username);
+        if (previous != null) {
+            ranking.remove(previous);
+        }
+        Entry entry = new Entry(username, score);
+        entries.put(username, entry);
+        ranking.add(entry);
+        snapshot = null;
+    }
+
+    /**
+     * прибавляет очки игроку
+     * @param username имя игрока
+     * @param delta прибавляемые очки
+     */
+    public synchronized void addScore(String username, int delta) {
+        Entry previous = entries.get(username);
+        setScore(username, previous == null ? delta : previous.score + delta);
+    }
+
+    /**
+     * @param username имя игрока
+     * @return место игрока начиная с 1, либо 0, если игрока нет в рейтинге
+     */
+    public int getRank(String username) {
+        Integer rank = getSnapshot().ranks.get(username);
+        return rank == null ? 0 : rank;
+    }
+
+    /**
+     * @return число игроков в рейтинге
+     */
+    public int size() {
+        return getSnapshot().entries.length;
+    }
+
+    /**
+     * возвращает первые {@code limit} строк рейтинга
+     * @param limit число строк
+     * @return массивы строк вида {username, score}
+     */
+    public List<String[]> getTop(int limit) {
+        Entry[] ranked = getSnapshot().entries;
+        int count = Math.min(limit, ranked.length);
+        List<String[]> top = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            top.add(new String[]{ranked[i].username, String.valueOf(ranked[i].score)});
+        }
+        return top;
+    }
+
+    /**
+     * формирует текст ответа на {@code !rating}: первые {@code limit}
+     * игроков и место запросившего игрока
+     * @param username имя запросившего игрока
+     * @param limit число выводимых игроков
+     * @return String
+     */
+    public String format(String username, int limit) {
+        Snapshot current = getSnapshot();
+        Entry[] ranked = current.entries;
+        int count = Math.min(limit, ranked.length);
+
+        StringBuilder msg = new StringBuilder("|SERVER|");
+        for (int i = 0; i < count; i++) {
+            msg.append(ranked[i].username).append(" have ").append(ranked[i].score).append("score");
+            if (i < count - 1) {
+                msg.append("\n");
+            }
+        }
+
+        Integer rank = current.ranks.get(username);
+        if (rank != null) {
+            msg.append("\nyour place ").append(rank).append(" of ").append(ranked.length)
+                    .append(" with ").append(ranked[rank - 1].score).append("score");
+        }
+        return msg.toString();
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = new Snapshot(ranking);
+            }
+            return snapshot;
+        }
+    }
+}
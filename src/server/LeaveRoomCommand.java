@@ -0,0 +1,28 @@
+package server;
+
+/**
+ * Команда {@code leave} - выход из текущей комнаты в комнату по
+ * умолчанию. Отвечает так же, как {@link JoinRoomCommand}.
+ * Выполняется только после входа.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class LeaveRoomCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "leave";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        if (!client.isSignedIn()) {
+            return true;
+        }
+        client.joinRoom(RoomRegistry.DEFAULT_ROOM);
+        client.sendMessage("room_joined|" + RoomRegistry.DEFAULT_ROOM);
+        client.sendChatHistory();
+        return true;
+    }
+}
@@ -0,0 +1,31 @@
+package server;
+
+import java.util.Map;
+
+/**
+ * Команда {@code rooms} - список комнат с числом участников в виде
+ * {@code room_list|general:3|ctf:1}. Выполняется только после входа.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class ListRoomsCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "rooms";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        if (!client.isSignedIn()) {
+            return true;
+        }
+        StringBuilder reply = new StringBuilder("room_list");
+        for (Map.Entry<String, Integer> room : ClientHandler.roomRegistry.getSizes().entrySet()) {
+            reply.append('|').append(room.getKey()).append(':').append(room.getValue());
+        }
+        client.sendMessage(reply.toString());
+        return true;
+    }
+}
@@ -0,0 +1,201 @@
+package server;
+
+import javax.mail.MessagingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Очередь исходящих писем.
+ * <p>
+ * Обработчики клиентов только ставят письмо в ограниченную очередь и не
+ * ждут SMTP сервер. Письма отправляет небольшой пул потоков, каждый из
+ * которых держит свое переиспользуемое соединение {@link EmailSender}.
+ * Неудачная отправка повторяется с экспоненциальной задержкой, а
+ * состояние каждого письма доступно через {@link Ticket}. Любая ошибка
+ * отправки, в том числе непроверяемое исключение, относится только к
+ * своему письму и не останавливает поток отправки.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class MailOutbox {
+
+    /**
+     * состояние письма
+     */
+    public enum Status {
+        QUEUED,
+        SENDING,
+        RETRYING,
+        SENT,
+        FAILED
+    }
+
+    /**
+     * Письмо в очереди и его состояние.
+     */
+    public static final class Ticket {
+        private final String emailAddress;
+        private final String subject;
+        private final String text;
+        private volatile Status status = Status.QUEUED;
+        private volatile int attempts = 0;
+        private volatile String lastError;
+
+        private Ticket(String emailAddress, String subject, String text) {
+            this.emailAddress = emailAddress;
+            this.subject = subject;
+            this.text = text;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return текст последней ошибки отправки, либо {@code null}
+         */
+        public String getLastError() {
+            return lastError;
+        }
+
+        public String getEmailAddress() {
+            return emailAddress;
+        }
+    }
+
+    private final BlockingQueue<Ticket> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final ScheduledExecutorService retryScheduler;
+    private final int maxAttempts;
+    private final long retryDelayMs;
+    private volatile boolean running = true;
+
+    /**
+     * Конструктор класса {@code MailOutbox}. Запускает потоки отправки.
+     * @param senderFactory создает отдельный {@link EmailSender} для каждого потока
+     * @param capacity емкость очереди
+     * @param workerCount число потоков отправки
+     * @param maxAttempts максимальное число попыток отправки письма
+     * @param retryDelayMs задержка перед первой повторной попыткой, далее удваивается
+     */
+    public MailOutbox(Supplier<EmailSender> senderFactory, int capacity, int workerCount,
+                      int maxAttempts, long retryDelayMs) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMs = retryDelayMs;
+
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mail-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < workerCount; i++) {
+            EmailSender emailSender = senderFactory.get();
+            Thread worker = new Thread(() -> workLoop(emailSender), "mail-sender-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * создает очередь писем по настройкам из {@link ServerConfig}
+     * @return {@code MailOutbox}
+     */
+    public static MailOutbox fromConfig() {
+        return new MailOutbox(EmailSender::new, ServerConfig.MAIL_QUEUE_SIZE, ServerConfig.MAIL_WORKERS,
+                ServerConfig.MAIL_MAX_ATTEMPTS, ServerConfig.MAIL_RETRY_DELAY_MS);
+    }
+
+    /**
+     * ставит письмо в очередь отправки
+     * @param emailAddress email получателя
+     * @param subject тема письма
+     * @param text сообщение
+     * @return {@code Ticket} письма; если очередь заполнена, письмо сразу
+     * получает состояние {@link Status#FAILED}
+     */
+    public Ticket submit(String emailAddress, String subject, String text) {
+        Ticket ticket = new Ticket(emailAddress, subject, text);
+        if (!running || !queue.offer(ticket)) {
+            ticket.lastError = "очередь писем заполнена";
+            ticket.status = Status.FAILED;
+            System.err.println("Письмо для " + emailAddress + " не поставлено в очередь");
+        }
+        return ticket;
+    }
+
+    /**
+     * @return число писем, ожидающих отправки
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * останавливает отправку, письма в очереди не отправляются
+     */
+    public void close() {
+        running = false;
+        retryScheduler.shutdownNow();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    private void workLoop(EmailSender emailSender) {
+        try {
+            while (running) {
+                send(emailSender, queue.take());
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            emailSender.close();
+        }
+    }
+
+    private void send(EmailSender emailSender, Ticket ticket) {
+        ticket.status = Status.SENDING;
+        ticket.attempts++;
+        try {
+            emailSender.sendMessage(ticket.emailAddress, ticket.subject, ticket.text);
+            ticket.status = Status.SENT;
+        } catch (MessagingException e) {
+            ticket.lastError = e.toString();
+            scheduleRetry(ticket);
+        } catch (RuntimeException e) {
+            // состояние соединения неизвестно, следующая попытка подключится заново
+            emailSender.close();
+            ticket.lastError = e.toString();
+            scheduleRetry(ticket);
+        }
+    }
+
+    private void scheduleRetry(Ticket ticket) {
+        if (!running || ticket.attempts >= maxAttempts) {
+            ticket.status = Status.FAILED;
+            System.err.println("Ошибка отправки письма " + ticket.emailAddress + ": " + ticket.lastError);
+            return;
+        }
+
+        ticket.status = Status.RETRYING;
+        long delay = retryDelayMs << (ticket.attempts - 1);
+        try {
+            retryScheduler.schedule(() -> {
+                if (!queue.offer(ticket)) {
+                    ticket.status = Status.FAILED;
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            ticket.status = Status.FAILED;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+/**
+ * Канал обмена строковыми сообщениями с клиентом.
+ * <p>
+ * Реализации: {@link FramedChannel} - кадры с префиксом длины, и
+ * {@link ObjectStreamChannel} - прежний протокол на сериализации Java,
+ * оставленный для совместимости со старыми клиентами.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public interface MessageChannel extends AutoCloseable {
+
+    /** поддерживаемые протоколы: {@code auto}, {@code framed} или {@code legacy} */
+    String AUTO = "auto";
+    String FRAMED = "framed";
+    String LEGACY = "legacy";
+
+    /**
+     * блокируется до получения следующего сообщения
+     * @return String
+     */
+    String read() throws IOException;
+
+    /**
+     * записывает сообщение в буфер канала
+     * @param message сообщение
+     */
+    void write(String message) throws IOException;
+
+    /**
+     * отправляет записанные сообщения
+     */
+    void flush() throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * открывает канал на сокете клиента. В режиме {@link #AUTO}
+     * протокол определяется по первым байтам от клиента: заголовок
+     * сериализации Java означает старый клиент, сигнатура кадрового
+     * протокола - новый. Если клиент ничего не прислал за
+     * {@code detectTimeoutMs}, считается, что это старый клиент, который
+     * ждет заголовок сериализации от сервера.
+     * @param socket сокет клиента
+     * @param protocol протокол, см. {@link #AUTO}, {@link #FRAMED}, {@link #LEGACY}
+     * @param maxFrameBytes максимальный размер входящего кадра
+     * @param detectTimeoutMs время ожидания первых байт в режиме {@link #AUTO}, мс
+     * @return {@code MessageChannel}
+     */
+    static MessageChannel open(Socket socket, String protocol, int maxFrameBytes, int detectTimeoutMs)
+            throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+
+        if (protocol.equalsIgnoreCase(AUTO)) {
+            byte[] head = new byte[0];
+            int previousTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(detectTimeoutMs);
+            in.mark(FramedChannel.MAGIC.length);
+            try {
+                head = in.readNBytes(FramedChannel.MAGIC.length);
+            } catch (SocketTimeoutException ignored) {
+            } finally {
+                in.reset();
+                socket.setSoTimeout(previousTimeout);
+            }
+            protocol = Arrays.equals(head, FramedChannel.MAGIC) ? FRAMED : LEGACY;
+        }
+
+        if (protocol.equalsIgnoreCase(FRAMED)) {
+            return new FramedChannel(in, socket.getOutputStream(), maxFrameBytes);
+        }
+        return new ObjectStreamChannel(in, socket.getOutputStream(), maxFrameBytes);
+    }
+}
@@ -0,0 +1,195 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Журнал отложенной записи истории сообщений.
+ * <p>
+ * Сообщения помещаются в очередь и записываются в БД пачками в одной
+ * транзакции: когда в очереди набирается {@code batchSize} сообщений,
+ * либо по истечении {@code flushIntervalMs}. Поэтому доставка не ждет
+ * записи на диск, а при аварийном завершении теряются сообщения не
+ * более чем за один интервал. При закрытии журнал записывает все
+ * оставшиеся сообщения. Еще не записанные сообщения читатели истории
+ * получают снимком {@link #pending()}, не дожидаясь записи.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class MessageJournal {
+
+    private final BlockingQueue<String[]> queue;
+    private final Consumer<List<String[]>> batchWriter;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Object signal = new Object();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private final Object tailLock = new Object();
+    private List<String[]> inFlight = Collections.emptyList();
+    private long writtenBatches;
+
+    /**
+     * Снимок сообщений журнала, еще не записанных в БД, в порядке
+     * добавления.
+     */
+    public final class Pending {
+        private final List<String[]> messages;
+        private final long version;
+
+        private Pending(List<String[]> messages, long version) {
+            this.messages = messages;
+            this.version = version;
+        }
+
+        /**
+         * @return массивы строк вида {date, sender, message, roomId}
+         */
+        public List<String[]> getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return {@code true}, если с момента снимка журнал не записал
+         * ни одной пачки, то есть чтение БД после снимка не содержит его
+         * сообщений
+         */
+        public boolean isCurrent() {
+            synchronized (tailLock) {
+                return writtenBatches == version;
+            }
+        }
+    }
+
+    /**
+     * Конструктор класса {@code MessageJournal}. Запускает поток записи.
+     * @param batchWriter функция, записывающая пачку сообщений в одной транзакции
+     * @param capacity емкость очереди, при заполнении отправители ожидают записи
+     * @param batchSize размер пачки, при котором запись начинается досрочно
+     * @param flushIntervalMs максимальное время нахождения сообщения в очереди, мс
+     */
+    public MessageJournal(Consumer<List<String[]>> batchWriter, int capacity, int batchSize, long flushIntervalMs) {
+        this.batchWriter = batchWriter;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+
+        writerThread = new Thread(this::writeLoop, "message-journal");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * добавляет сообщение в журнал
+     * @param roomId комната сообщения
+     * @param date дата сообщения
+     * @param sender имя отправителя
+     * @param message сообщение
+     */
+    public void append(String roomId, String date, String sender, String message) {
+        if (!running) {
+            batchWriter.accept(Collections.singletonList(new String[]{date, sender, message, roomId}));
+            return;
+        }
+        try {
+            queue.put(new String[]{date, sender, message, roomId});
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (queue.size() >= batchSize) {
+            synchronized (signal) {
+                signal.notify();
+            }
+        }
+    }
+
+    /**
+     * синхронно записывает все сообщения, находящиеся в очереди
+     * @return число записанных сообщений
+     */
+    public synchronized int flush() {
+        int written = 0;
+        List<String[]> batch = new ArrayList<>(batchSize);
+        while (true) {
+            // пачка остается видимой в снимках, пока не записана
+            synchronized (tailLock) {
+                if (queue.drainTo(batch, batchSize) == 0) {
+                    break;
+                }
+                inFlight = batch;
+            }
+            try {
+                batchWriter.accept(batch);
+            } finally {
+                synchronized (tailLock) {
+                    inFlight = Collections.emptyList();
+                    writtenBatches++;
+                }
+            }
+            written += batch.size();
+            batch.clear();
+        }
+        return written;
+    }
+
+    /**
+     * @return снимок сообщений, еще не записанных в БД, включая
+     * записываемую пачку
+     */
+    public Pending pending() {
+        synchronized (tailLock) {
+            List<String[]> messages = new ArrayList<>(inFlight.size() + queue.size());
+            messages.addAll(inFlight);
+            Collections.addAll(messages, queue.toArray(new String[0][]));
+            return new Pending(messages, writtenBatches);
+        }
+    }
+
+    /**
+     * @return число сообщений, ожидающих записи
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * останавливает поток записи и записывает оставшиеся сообщения
+     */
+    public void close() {
+        running = false;
+        synchronized (signal) {
+            signal.notify();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void writeLoop() {
+        while (running) {
+            synchronized (signal) {
+                if (running && queue.size() < batchSize) {
+                    try {
+                        signal.wait(flushIntervalMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                System.err.println("Ошибка записи журнала сообщений: " + e);
+            }
+        }
+    }
+}
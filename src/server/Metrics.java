@@ -0,0 +1,208 @@
+package server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Метрики сервера: гистограммы времени этапов обработки, счетчики и
+ * показатели состояния.
+ * <p>
+ * Метрики регистрируются один раз и далее только обновляются без
+ * блокировок, поэтому их можно не отключать в работе. Значения
+ * доступны через JMX и HTTP в формате Prometheus, см. {@link MetricsServer}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public final class Metrics {
+
+    /** границы корзин времени, нс: от 50 мкс до 10 с */
+    private static final long[] TIME_BOUNDS = {
+            50_000L, 100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L, 10_000_000_000L};
+
+    /** границы корзин числа получателей рассылки */
+    private static final long[] WIDTH_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private static final Map<String, Family<?>> families = new LinkedHashMap<>();
+
+    public static final Family<Histogram> HANDSHAKE = timers("chat_handshake_seconds",
+            "Key exchange and username of a new connection", null);
+    public static final Family<Histogram> PGP_DECRYPT = timers("chat_pgp_decrypt_seconds",
+            "PGP.decryptString of one client message", null);
+    public static final Family<Histogram> PGP_ENCRYPT = timers("chat_pgp_encrypt_seconds",
+            "PGP.encryptString for one recipient or one shared broadcast", "recipients");
+    public static final Family<Histogram> COMMANDS = timers("chat_command_seconds",
+            "Execution of one client command", "command");
+    public static final Family<Histogram> DATABASE = timers("chat_db_seconds",
+            "Database operation including the wait for a connection", "operation");
+    public static final Family<Histogram> SOCKET_WRITE = timers("chat_socket_write_seconds",
+            "Write of one message to a client socket", null);
+    public static final Family<Histogram> HISTORY_REPLAY = timers("chat_history_replay_seconds",
+            "Latest history page sent on sign-in, join or leave", "mode");
+    public static final Family<Histogram> FANOUT = register(new Family<>("chat_broadcast_recipients",
+            "Recipients of one broadcast", "histogram", null, label -> new Histogram(WIDTH_BOUNDS, 1)));
+    public static final Family<LongAdder> ERRORS = counters("chat_errors_total",
+            "Errors by pipeline stage", "stage");
+    public static final Family<LongAdder> DROPPED = counters("chat_outbound_dropped_total",
+            "Messages dropped because a client queue was full or closed", null);
+    public static final Family<LongAdder> CLUSTER = counters("chat_cluster_events_total",
+            "Events exchanged with other cluster nodes", "direction");
+
+    static {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        gauge("chat_sessions", "Signed in client sessions", () -> ClientHandler.sessionRegistry.size());
+        gauge("chat_outbound_queued", "Messages waiting in client outbound queues",
+                () -> ClientHandler.sessionRegistry.getQueuedMessages());
+        gauge("chat_outbound_queue_max_depth", "Deepest client outbound queue",
+                () -> ClientHandler.sessionRegistry.getMaxQueueDepth());
+        gauge("chat_rooms", "Chat rooms with at least one member", () -> ClientHandler.roomRegistry.size());
+        gauge("chat_cluster_remote_sessions", "Sessions signed in on other cluster nodes",
+                () -> ClientHandler.cluster.getRemoteSessionCount());
+        KeyringCache keyringCache = PGP.getKeyringCache();
+        gauge("chat_keyring_cache_hits", "Parsed PGP keys served from the cache", keyringCache::getHitCount);
+        gauge("chat_keyring_cache_misses", "PGP keys read and parsed from disk", keyringCache::getMissCount);
+        gauge("chat_keyring_cache_evictions", "Parsed PGP keys evicted from the cache",
+                keyringCache::getEvictionCount);
+        gauge("jvm_threads_live", "Live platform threads", threads::getThreadCount);
+        gauge("jvm_threads_peak", "Peak live platform threads", threads::getPeakThreadCount);
+        gauge("jvm_threads_daemon", "Live daemon platform threads", threads::getDaemonThreadCount);
+        gauge("jvm_memory_heap_used_bytes", "Used heap",
+                () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    private Metrics() {}
+
+    /**
+     * Семейство метрик одного имени, различающихся значением одной метки.
+     * @param <T> тип метрики
+     */
+    public static final class Family<T> {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final String labelName;
+        private final Function<String, T> factory;
+        private final Map<String, T> metrics = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type, String labelName, Function<String, T> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelName = labelName;
+            this.factory = factory;
+        }
+
+        /**
+         * @return метрика без метки
+         */
+        public T get() {
+            return get("");
+        }
+
+        /**
+         * @param label значение метки
+         * @return метрика с этим значением метки, создается при первом обращении
+         */
+        public T get(String label) {
+            T metric = metrics.get(label);
+            return metric != null ? metric : metrics.computeIfAbsent(label, factory);
+        }
+
+        private String labels(String label) {
+            return labelName == null ? "" : labelName + "=\"" + label.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+    }
+
+    private static synchronized <T> Family<T> register(Family<T> family) {
+        if (families.putIfAbsent(family.name, family) != null) {
+            throw new IllegalArgumentException("Метрика уже зарегистрирована: " + family.name);
+        }
+        if (family.labelName == null) {
+            // метрика без меток публикуется сразу, даже нулевая
+            family.get();
+        }
+        return family;
+    }
+
+    private static Family<Histogram> timers(String name, String help, String labelName) {
+        return register(new Family<>(name, help, "histogram", labelName, label -> new Histogram(TIME_BOUNDS, 1e-9)));
+    }
+
+    private static Family<LongAdder> counters(String name, String help, String labelName) {
+        return register(new Family<>(name, help, "counter", labelName, label -> new LongAdder()));
+    }
+
+    /**
+     * регистрирует показатель, значение которого вычисляется при чтении
+     * @param name имя метрики
+     * @param help описание
+     * @param supplier источник значения
+     */
+    public static void gauge(String name, String help, LongSupplier supplier) {
+        register(new Family<>(name, help, "gauge", null, label -> supplier));
+    }
+
+    /**
+     * @return все метрики в текстовом формате Prometheus
+     */
+    public static String toPrometheus() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Family<?> family : snapshotFamilies()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, ?> entry : family.metrics.entrySet()) {
+                String labels = family.labels(entry.getKey());
+                Object metric = entry.getValue();
+                if (metric instanceof Histogram histogram) {
+                    histogram.writePrometheus(out, family.name, labels);
+                } else {
+                    out.append(family.name).append(labels.isEmpty() ? "" : "{" + labels + "}")
+                            .append(' ').append(valueOf(metric)).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return плоский список значений для JMX: для гистограмм число,
+     * среднее и максимум в исходных единицах, для остальных метрик - значение
+     */
+    public static Map<String, Long> toAttributes() {
+        Map<String, Long> attributes = new LinkedHashMap<>();
+        for (Family<?> family : snapshotFamilies()) {
+            for (Map.Entry<String, ?> entry : family.metrics.entrySet()) {
+                String key = entry.getKey().isEmpty() ? family.name : family.name + "." + entry.getKey();
+                if (entry.getValue() instanceof Histogram histogram) {
+                    attributes.put(key + ".count", histogram.getCount());
+                    attributes.put(key + ".avg", histogram.getAverage());
+                    attributes.put(key + ".max", histogram.getMax());
+                } else {
+                    attributes.put(key, valueOf(entry.getValue()));
+                }
+            }
+        }
+        return attributes;
+    }
+
+    private static synchronized List<Family<?>> snapshotFamilies() {
+        return new ArrayList<>(families.values());
+    }
+
+    private static long valueOf(Object metric) {
+        if (metric instanceof LongAdder adder) {
+            return adder.sum();
+        }
+        return ((LongSupplier) metric).getAsLong();
+    }
+}
@@ -0,0 +1,155 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Публикация {@link Metrics}: MBean {@code server:type=Metrics} и
+ * HTTP {@code /metrics} в текстовом формате Prometheus.
+ * <p>
+ * HTTP слушает только loopback, поэтому метрики недоступны извне
+ * без прокси или агента на той же машине.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class MetricsServer {
+
+    private static final String OBJECT_NAME = "server:type=Metrics";
+
+    private final HttpServer httpServer;
+    private final ObjectName objectName;
+
+    /**
+     * Конструктор класса {@code MetricsServer}. Регистрирует MBean и
+     * запускает HTTP сервер.
+     * @param port порт HTTP на loopback, 0 - HTTP не запускается
+     */
+    public MetricsServer(int port) throws IOException {
+        objectName = registerMBean();
+
+        if (port > 0) {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            httpServer.createContext("/metrics", this::handleMetrics);
+            httpServer.start();
+        } else {
+            httpServer = null;
+        }
+    }
+
+    /**
+     * @return {@code MetricsServer} на порту из {@link ServerConfig}, либо
+     * {@code null}, если метрики отключены
+     */
+    public static MetricsServer fromConfig() {
+        if (ServerConfig.METRICS_PORT < 0) {
+            return null;
+        }
+        try {
+            return new MetricsServer(ServerConfig.METRICS_PORT);
+        } catch (IOException e) {
+            System.err.println("Ошибка запуска сервера метрик: " + e);
+            return null;
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        byte[] body = Metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private ObjectName registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (!mBeanServer.isRegistered(name)) {
+                mBeanServer.registerMBean(new MetricsMBean(), name);
+            }
+            return name;
+        } catch (JMException e) {
+            System.err.println("Ошибка регистрации MBean метрик: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * останавливает HTTP сервер и снимает регистрацию MBean
+     */
+    public void close() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {}
+        }
+    }
+
+    /**
+     * MBean только для чтения, атрибуты которого - текущие значения
+     * {@link Metrics#toAttributes()}.
+     */
+    private static class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = Metrics.toAttributes().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = Metrics.toAttributes();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Long> values = Metrics.toAttributes();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (String name : values.keySet()) {
+                attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+            }
+            return new MBeanInfo(getClass().getName(), "Chat server metrics", attributes, null, null, null);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Метрики доступны только для чтения");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+            throw new MBeanException(new UnsupportedOperationException(actionName));
+        }
+    }
+}
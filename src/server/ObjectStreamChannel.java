@@ -0,0 +1,140 @@
+package server;
+
+import java.io.*;
+
+/**
+ * Прежний протокол обмена сообщениями на сериализации Java,
+ * оставленный для совместимости со старыми клиентами.
+ * <p>
+ * Принимаются только строки не длиннее {@code maxFrameBytes} байт, как
+ * и в кадровом протоколе. Строки читаются мимо {@link ObjectInputFilter},
+ * поэтому размер ограничивается подсчетом байт входного потока на
+ * каждое сообщение. После каждой отправки таблица ссылок
+ * потока вывода сбрасывается, чтобы она не хранила все отправленные
+ * строки до конца сессии.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class ObjectStreamChannel implements MessageChannel {
+
+    /** запас на заголовки сериализации и упреждающее чтение блоков ObjectInputStream */
+    private static final int OVERHEAD_BYTES = 1024;
+
+    private final ObjectOutputStream objectOutputStream;
+    private final ObjectInputStream objectInputStream;
+    private final LimitedInputStream limitedInput;
+
+    /**
+     * Конструктор класса {@code ObjectStreamChannel}. Поток вывода
+     * создается первым, чтобы клиент получил заголовок сериализации
+     * до того, как сервер начнет ждать заголовок клиента.
+     * @param in поток ввода клиента
+     * @param out поток вывода клиента
+     * @param maxFrameBytes максимальный размер одного входящего сообщения
+     */
+    public ObjectStreamChannel(InputStream in, OutputStream out, int maxFrameBytes) throws IOException {
+        objectOutputStream = new ObjectOutputStream(new BufferedOutputStream(out));
+        objectOutputStream.flush();
+        long limit = (long) maxFrameBytes + OVERHEAD_BYTES;
+        limitedInput = new LimitedInputStream(in, limit);
+        objectInputStream = new ObjectInputStream(limitedInput);
+        objectInputStream.setObjectInputFilter(info -> {
+            if (info.streamBytes() - limitedInput.getMessageStart() > limit || info.arrayLength() > maxFrameBytes) {
+                return ObjectInputFilter.Status.REJECTED;
+            }
+            return info.serialClass() == null || info.serialClass() == String.class
+                    ? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+        });
+    }
+
+    @Override
+    public String read() throws IOException {
+        limitedInput.startMessage();
+        try {
+            return (String) objectInputStream.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Неверное сообщение от клиента: " + e);
+        }
+    }
+
+    @Override
+    public void write(String message) throws IOException {
+        objectOutputStream.writeObject(message);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        objectOutputStream.reset();
+        objectOutputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            objectInputStream.close();
+        } finally {
+            objectOutputStream.close();
+        }
+    }
+
+    /**
+     * Поток ввода, прерывающий чтение сообщения, которое длиннее лимита.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long total = 0;
+        private long messageStart = 0;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        /**
+         * начинает отсчет байт нового сообщения
+         */
+        void startMessage() {
+            messageStart = total;
+        }
+
+        /**
+         * @return число байт, прочитанных из потока до начала текущего сообщения
+         */
+        long getMessageStart() {
+            return messageStart;
+        }
+
+        private void count(long bytes) throws IOException {
+            total += bytes;
+            if (total - messageStart > limit) {
+                throw new IOException("Размер сообщения превышает допустимый " + limit);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+    }
+}
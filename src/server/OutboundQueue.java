@@ -0,0 +1,231 @@
+package server;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченная очередь исходящих сообщений клиента с отдельным
+ * потоком-писателем.
+ * <p>
+ * Рассылка только помещает уже зашифрованное сообщение в очередь,
+ * поэтому медленный клиент не задерживает отправителя и остальных
+ * получателей. При переполнении очереди сообщения рассылки
+ * отбрасываются и учитываются в статистике. Отметка, поставленная
+ * в очередь, выполняется писателем после того, как все сообщения
+ * перед ней записаны в сокет.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class OutboundQueue {
+
+    private static final Object POISON = new Object();
+    /** как часто писатель проверяет закрытие очереди, если маркер закрытия в нее не поместился */
+    private static final long CLOSE_CHECK_MS = 100;
+
+    private final MessageChannel channel;
+    private final BlockingQueue<Object> queue;
+    private final Runnable onFailure;
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+
+    private final LongAdder writtenCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder totalWriteNanos = new LongAdder();
+    private final AtomicLong maxWriteNanos = new AtomicLong();
+
+    /**
+     * Конструктор класса {@code OutboundQueue}. Запускает поток-писатель.
+     * @param channel канал обмена сообщениями с клиентом
+     * @param capacity емкость очереди
+     * @param name имя, используемое для потока-писателя
+     * @param onFailure действие при ошибке записи в сокет
+     */
+    public OutboundQueue(MessageChannel channel, int capacity, String name, Runnable onFailure) {
+        this.channel = channel;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.onFailure = onFailure;
+        this.writerThread = Thread.ofVirtual().name("writer-" + name).start(this::writeLoop);
+    }
+
+    /**
+     * помещает сообщение в очередь без ожидания
+     * @param encryptedMessage зашифрованное сообщение
+     * @return {@code true}, если сообщение принято, иначе {@code false}
+     * и сообщение учитывается как отброшенное
+     */
+    public boolean offer(String encryptedMessage) {
+        if (closed || encryptedMessage == null || !queue.offer(encryptedMessage)) {
+            recordDrop();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * помещает сообщение в очередь, ожидая освобождения места
+     * @param encryptedMessage зашифрованное сообщение
+     * @param timeoutMs максимальное время ожидания, мс
+     * @return {@code true}, если сообщение принято, иначе {@code false}
+     */
+    public boolean put(String encryptedMessage, long timeoutMs) {
+        if (closed || encryptedMessage == null) {
+            recordDrop();
+            return false;
+        }
+        try {
+            if (queue.offer(encryptedMessage, timeoutMs, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        recordDrop();
+        return false;
+    }
+
+    /**
+     * ставит в очередь отметку, которую писатель выполнит после записи
+     * и сброса в сокет всех сообщений, поставленных перед ней
+     * @param checkpoint действие отметки; выполняется потоком-писателем
+     * @param timeoutMs максимальное время ожидания места в очереди, мс
+     * @return {@code true}, если отметка принята
+     */
+    public boolean putCheckpoint(Runnable checkpoint, long timeoutMs) {
+        if (closed) {
+            return false;
+        }
+        try {
+            return queue.offer(checkpoint, timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * прекращает прием сообщений и ожидает, пока писатель отправит
+     * уже поставленные в очередь. Писатель завершается, дойдя до маркера
+     * закрытия или, если очередь была полна, опустошив ее; прерывается
+     * он, только если не успел за {@code drainTimeoutMs}.
+     * @param drainTimeoutMs максимальное время ожидания, мс
+     */
+    public void close(long drainTimeoutMs) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        queue.offer(POISON);
+        if (Thread.currentThread() == writerThread) {
+            return;
+        }
+        try {
+            writerThread.join(drainTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writerThread.interrupt();
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Object element = queue.poll(CLOSE_CHECK_MS, TimeUnit.MILLISECONDS);
+                if (element == null) {
+                    if (closed) {
+                        break;
+                    }
+                    continue;
+                }
+                if (element == POISON) {
+                    break;
+                }
+                if (element instanceof Runnable checkpoint) {
+                    channel.flush();
+                    checkpoint.run();
+                    continue;
+                }
+                String message = (String) element;
+
+                long start = System.nanoTime();
+                channel.write(message);
+                // сброс буфера откладывается, пока в очереди есть сообщения
+                if (queue.isEmpty()) {
+                    channel.flush();
+                }
+                recordWrite(System.nanoTime() - start);
+            }
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            if (!closed) {
+                Metrics.ERRORS.get("socket_write").increment();
+                System.err.println("Ошибка отправки сообщения: " + e);
+                closed = true;
+                onFailure.run();
+            }
+        }
+    }
+
+    private void recordWrite(long nanos) {
+        Metrics.SOCKET_WRITE.get().record(nanos);
+        writtenCount.increment();
+        totalWriteNanos.add(nanos);
+        maxWriteNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void recordDrop() {
+        Metrics.DROPPED.get().increment();
+        droppedCount.increment();
+    }
+
+    /**
+     * @return {@code true}, если очередь закрыта или запись в сокет не удалась
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return текущее число сообщений в очереди
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return среднее время записи сообщения в сокет, нс
+     */
+    public long getAverageWriteNanos() {
+        long count = writtenCount.sum();
+        return count == 0 ? 0 : totalWriteNanos.sum() / count;
+    }
+
+    /**
+     * @return максимальное время записи сообщения в сокет, нс
+     */
+    public long getMaxWriteNanos() {
+        return maxWriteNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + getDepth() +
+                ", written=" + getWrittenCount() +
+                ", dropped=" + getDroppedCount() +
+                ", avgWriteUs=" + getAverageWriteNanos() / 1000 +
+                ", maxWriteUs=" + getMaxWriteNanos() / 1000;
+    }
+}
@@ -5,6 +5,7 @@ import com.didisoft.pgp.exceptions.NoPrivateKeyFoundException;
 import interfaces.PGPInterface;
 
 import java.io.*;
+import java.util.Collection;
 import java.util.Random;
 
 /**
@@ -17,10 +18,11 @@ public class PGP implements PGPInterface {
     PGPLib pgpLib;
     public String defaultKeysFilepath = "src/server/res/keys/";
     private static final int KEY_SIZE_IN_BYTES = 2048;
+    private static final KeyringCache keyringCache = new KeyringCache(ServerConfig.KEYRING_CACHE_SIZE);
+    private static final RecipientKeyring recipientKeyring = new RecipientKeyring();
 
-    public PGP(String username) {
+    public PGP() {
         this.pgpLib = new PGPLib();
-        this.generateKeyPair(username);
     }
 
     /**
@@ -57,15 +59,36 @@ public class PGP implements PGPInterface {
      * @return String в случае успешного шифрования, иначе null
      */
     public String encryptString(String stringToEncrypt, String username) {
+        long start = System.nanoTime();
         try {
-            FileInputStream publicEncryptionKeyFile = new FileInputStream(this.getPublicKeyFilepath(username));
-            return pgpLib.encryptString(stringToEncrypt, publicEncryptionKeyFile);
+            KeyringCache.CachedKey publicKey = keyringCache.getPublicKey(username, this.getPublicKeyFilepath(username));
+            return pgpLib.encryptString(stringToEncrypt, publicKey.getKeyStore(), publicKey.getKeyId());
         } catch (PGPException | IOException e) {
+            Metrics.ERRORS.get("pgp_encrypt").increment();
             System.err.println("Ошибка шифрования строки: " + e);
+        } finally {
+            Metrics.PGP_ENCRYPT.get("single").recordSince(start);
         }
         return null;
     }
 
+    /**
+     * возвращает строку, зашифрованную один раз для нескольких получателей.
+     * Ключи получателей должны быть добавлены в {@link #getRecipientKeyring()}.
+     * @param stringToEncrypt сообщение для шифрования
+     * @param usernames имена получателей
+     * @return String в случае успешного шифрования, иначе null
+     */
+    public String encryptString(String stringToEncrypt, Collection<String> usernames) {
+        long start = System.nanoTime();
+        String encrypted = recipientKeyring.encryptString(pgpLib, stringToEncrypt, usernames);
+        if (encrypted == null) {
+            Metrics.ERRORS.get("pgp_encrypt").increment();
+        }
+        Metrics.PGP_ENCRYPT.get("shared").recordSince(start);
+        return encrypted;
+    }
+
     /**
      * возвращает расшифровыванную строку
      * @param stringToEncrypt сообщение для расшифровки
@@ -73,15 +96,43 @@ public class PGP implements PGPInterface {
      * @return String в случае успешной расшифровки, иначе null
      */
     public String decryptString(String stringToEncrypt, String username) {
+        long start = System.nanoTime();
         try {
-            FileInputStream publicDecryptionKeyFile = new FileInputStream(this.getPrivateKeyFilepath(username));
-            return pgpLib.decryptString(stringToEncrypt, publicDecryptionKeyFile, username);
+            KeyringCache.CachedKey privateKey = keyringCache.getPrivateKey(username,
+                    this.getPrivateKeyFilepath(username), username);
+            return pgpLib.decryptString(stringToEncrypt, privateKey.getKeyStore(), username);
         } catch (PGPException | IOException e) {
+            Metrics.ERRORS.get("pgp_decrypt").increment();
             System.err.println("Ошибка расшифровки строки: " + e);
+        } finally {
+            Metrics.PGP_DECRYPT.get().recordSince(start);
         }
         return null;
     }
 
+    /**
+     * сбрасывает закэшированный публичный ключ пользователя, вызывается
+     * после записи нового ключа в файл
+     * @param username имя пользователя-владельца ключа
+     */
+    public void invalidatePublicKey(String username) {
+        keyringCache.invalidatePublicKey(username);
+    }
+
+    /**
+     * @return общий для всех сессий кэш разобранных ключей
+     */
+    public static KeyringCache getKeyringCache() {
+        return keyringCache;
+    }
+
+    /**
+     * @return общее хранилище ключей подключенных клиентов для рассылки
+     */
+    public static RecipientKeyring getRecipientKeyring() {
+        return recipientKeyring;
+    }
+
     /**
      * создает и возвращает путь к файлу публичного ключа
      * @param username имя пользователя-владельца ключей
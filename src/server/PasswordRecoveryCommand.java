@@ -0,0 +1,66 @@
+package server;
+
+/**
+ * Команда сброса пароля {@code password_recovery|username}.
+ * <p>
+ * На адрес пользователя отправляется секретный код, после чего команда
+ * ожидает от клиента строку {@code ...|username|newPassword|secretCode}.
+ * Строка {@code back} отменяет сброс. Если письмо не принято в очередь
+ * отправки, клиент получает {@code failed_begin_password_recovery}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class PasswordRecoveryCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "password_recovery";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        String username = request.requireField(0);
+        Database db = client.getDb();
+
+        if (!db.userNotRegistered(username)) {
+            String secretCode = client.getPgp().generateSecretCode(6);
+
+            MailOutbox.Ticket ticket = client.getMailOutbox().submit(db.getEmail(username),
+                    "JavaChat confirm new password secret code", "Secret code:" + secretCode);
+            if (ticket.getStatus() == MailOutbox.Status.FAILED) {
+                // код не будет отправлен, ждать его от клиента бессмысленно
+                client.sendMessage("failed_begin_password_recovery");
+                client.closeEverything();
+                return false;
+            }
+            client.sendMessage("begin_password_recovery");
+
+            while (client.isConnected()) {
+                String s = client.waitMessage();
+                if (s == null || s.equals("back")) {
+                    return false;
+                }
+                CommandRequest confirmation = CommandRequest.parse(s);
+                username = confirmation.requireField(0);
+                String newPassword = confirmation.requireField(1);
+                String userSecretCode = confirmation.requireField(2);
+
+                if (secretCode.equals(userSecretCode)) {
+                    db.setPassword(username, newPassword);
+                    client.sendMessage("successful_password_recovery");
+                    client.closeEverything();
+                    return true;
+                } else {
+                    client.sendMessage("invalid_password_recovery");
+                }
+
+            }
+
+        } else {
+            client.sendMessage("failed_begin_password_recovery");
+            client.closeEverything();
+        }
+        return false;
+    }
+}
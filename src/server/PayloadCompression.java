@@ -0,0 +1,198 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатие сообщений клиенту перед шифрованием.
+ * <p>
+ * Режим выбирается при обмене ключами: клиент перед своим публичным
+ * ключом отправляет {@code capabilities|compression=режим1,режим2},
+ * сервер после своего ключа отвечает {@code capabilities|compression=режим}.
+ * Клиенты, не приславшие возможности, получают сообщения без сжатия.
+ * <p>
+ * Сжимаются только сообщения не короче порога; сжатое сообщение
+ * отправляется как {@link #PREFIX} и Base64 потока Deflate, и только
+ * если оно короче исходного. Режим {@link #DEFLATE_DICT} использует
+ * предустановленный словарь частых строк чата, что помогает сжимать
+ * короткие сообщения.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public enum PayloadCompression {
+
+    NONE("none"),
+    DEFLATE("deflate"),
+    DEFLATE_DICT("deflate_dict");
+
+    /** префикс служебного сообщения с возможностями клиента или сервера */
+    public static final String CAPABILITIES_PREFIX = "capabilities|";
+
+    /** префикс сжатого сообщения */
+    public static final String PREFIX = "compressed|";
+
+    // в конце словаря - самые частые строки, так как на них короче ссылки
+    private static final byte[] DICTIONARY = ("history_cursor|successful_sign_in|SERVER|flag already solved, id" +
+            "|SERVER|failed answer check, id - successful answer, id\nyour place  of  with score" +
+            " have score\n|SERVER|01.01.26 12:00|").getBytes(StandardCharsets.UTF_8);
+
+    private static final LongAdder compressedCount = new LongAdder();
+    private static final LongAdder skippedCount = new LongAdder();
+    private static final LongAdder bytesIn = new LongAdder();
+    private static final LongAdder bytesOut = new LongAdder();
+    private static final LongAdder totalNanos = new LongAdder();
+
+    private final String name;
+
+    PayloadCompression(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * выбирает режим по строке возможностей клиента. Предпочитается
+     * режим из настроек сервера, затем {@link #DEFLATE}.
+     * @param capabilities строка {@code capabilities|compression=...}
+     * @param preferred режим, заданный в настройках сервера
+     * @return выбранный режим, либо {@link #NONE}
+     */
+    public static PayloadCompression negotiate(String capabilities, PayloadCompression preferred) {
+        CommandRequest request = CommandRequest.parse(capabilities);
+        for (int i = 0; i < request.getFieldCount(); i++) {
+            String field = request.getField(i);
+            if (!field.startsWith("compression=")) {
+                continue;
+            }
+            String offered = "," + field.substring("compression=".length()) + ",";
+            if (preferred != NONE && offered.contains("," + preferred.name + ",")) {
+                return preferred;
+            }
+            if (preferred != NONE && offered.contains("," + DEFLATE.name + ",")) {
+                return DEFLATE;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param name имя режима
+     * @return {@code PayloadCompression}
+     * @throws IllegalArgumentException если режим неизвестен
+     */
+    public static PayloadCompression fromName(String name) {
+        for (PayloadCompression compression : values()) {
+            if (compression.name.equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Неизвестный режим сжатия: " + name);
+    }
+
+    /**
+     * @return ответ сервера на строку возможностей клиента
+     */
+    public String toCapabilities() {
+        return CAPABILITIES_PREFIX + "compression=" + name;
+    }
+
+    /**
+     * сжимает сообщение, если оно не короче порога и сжатие выгодно
+     * @param message сообщение
+     * @param threshold минимальная длина сжимаемого сообщения, байт
+     * @return сжатое сообщение с {@link #PREFIX}, либо исходное
+     */
+    public String compress(String message, int threshold) {
+        if (this == NONE || message.length() < threshold || message.startsWith(HistoryBundle.PREFIX)) {
+            return message;
+        }
+
+        long start = System.nanoTime();
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] buffer = new byte[data.length + 64];
+        int length;
+        boolean finished;
+        try {
+            if (this == DEFLATE_DICT) {
+                deflater.setDictionary(DICTIONARY);
+            }
+            deflater.setInput(data);
+            deflater.finish();
+            length = deflater.deflate(buffer);
+            // не поместившийся в буфер результат заведомо длиннее исходного сообщения
+            finished = deflater.finished();
+        } finally {
+            deflater.end();
+        }
+
+        String result = finished ? PREFIX + Base64.getEncoder().encodeToString(Arrays.copyOf(buffer, length)) : null;
+        totalNanos.add(System.nanoTime() - start);
+        if (result == null || result.length() >= message.length()) {
+            skippedCount.increment();
+            return message;
+        }
+        compressedCount.increment();
+        bytesIn.add(data.length);
+        bytesOut.add(result.length());
+        return result;
+    }
+
+    /**
+     * распаковывает сообщение, используется клиентом
+     * @param message сообщение, возможно с {@link #PREFIX}
+     * @return исходное сообщение
+     */
+    public String decompress(String message) throws DataFormatException {
+        if (!message.startsWith(PREFIX)) {
+            return message;
+        }
+        byte[] data = Base64.getDecoder().decode(message.substring(PREFIX.length()));
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(DICTIONARY);
+                } else if (length == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("Сжатое сообщение обрезано");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return статистика сжатия всех сессий: число сжатых и несжатых
+     * из-за невыгодности сообщений, степень сжатия и затраты времени.
+     * Сжатие не блокируется, поэтому затраченное время соответствует
+     * затратам процессора.
+     */
+    public static String getStats() {
+        long in = bytesIn.sum();
+        long out = bytesOut.sum();
+        long attempts = compressedCount.sum() + skippedCount.sum();
+        return "compressed=" + compressedCount.sum() +
+                ", skipped=" + skippedCount.sum() +
+                ", bytesIn=" + in +
+                ", bytesOut=" + out +
+                ", ratio=" + (out == 0 ? "-" : String.format("%.2f", (double) in / out)) +
+                ", cpuMs=" + totalNanos.sum() / 1_000_000 +
+                ", avgUs=" + (attempts == 0 ? 0 : totalNanos.sum() / attempts / 1000);
+    }
+}
@@ -0,0 +1,22 @@
+package server;
+
+/**
+ * Команда {@code !rating} - таблица лидеров и место клиента в ней.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class RatingCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "!rating";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        client.sendMessage(client.getDb().getLeaderboard().format(client.getClientUsername(),
+                ServerConfig.LEADERBOARD_TOP));
+        return true;
+    }
+}
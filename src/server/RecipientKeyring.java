@@ -0,0 +1,113 @@
+package server;
+
+import com.didisoft.pgp.KeyPairInformation;
+import com.didisoft.pgp.KeyStore;
+import com.didisoft.pgp.PGPException;
+import com.didisoft.pgp.PGPLib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Общее хранилище публичных ключей подключенных клиентов для рассылки.
+ * <p>
+ * Позволяет зашифровать сообщение один раз в виде одного OpenPGP
+ * сообщения для нескольких получателей: тело шифруется одним
+ * сеансовым ключом, а для каждого получателя добавляется только пакет
+ * с этим ключом, зашифрованным его публичным ключом. Расшифровать
+ * сообщение могут только указанные получатели.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class RecipientKeyring {
+
+    private final KeyStore keyStore = new KeyStore();
+    private final Map<String, Long> keyIds = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * добавляет публичный ключ получателя, заменяя предыдущий
+     * @param username имя получателя
+     * @param armoredPublicKey публичный ключ в ASCII armor
+     */
+    public void add(String username, String armoredPublicKey) {
+        lock.writeLock().lock();
+        try {
+            removeKey(username);
+            KeyPairInformation[] keyInfo = keyStore.importPublicKey(
+                    new ByteArrayInputStream(armoredPublicKey.getBytes(StandardCharsets.UTF_8)));
+            if (keyInfo != null && keyInfo.length > 0) {
+                keyIds.put(username, keyInfo[0].getKeyID());
+            }
+        } catch (PGPException | IOException e) {
+            System.err.println("Ошибка добавления ключа получателя: " + e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * удаляет ключ получателя
+     * @param username имя получателя
+     */
+    public void remove(String username) {
+        lock.writeLock().lock();
+        try {
+            removeKey(username);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * шифрует строку один раз для всех указанных получателей
+     * @param pgpLib библиотека, выполняющая шифрование
+     * @param stringToEncrypt сообщение для шифрования
+     * @param usernames имена получателей
+     * @return String в случае успешного шифрования, иначе null
+     */
+    public String encryptString(PGPLib pgpLib, String stringToEncrypt, Collection<String> usernames) {
+        lock.readLock().lock();
+        try {
+            long[] recipientKeyIds = new long[usernames.size()];
+            int count = 0;
+            for (String username : usernames) {
+                Long keyId = keyIds.get(username);
+                if (keyId == null) {
+                    return null;
+                }
+                recipientKeyIds[count++] = keyId;
+            }
+
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            pgpLib.encryptStream(new ByteArrayInputStream(stringToEncrypt.getBytes(StandardCharsets.UTF_8)),
+                    "", keyStore, recipientKeyIds, encrypted, true, true);
+            return encrypted.toString(StandardCharsets.UTF_8);
+        } catch (PGPException | IOException e) {
+            System.err.println("Ошибка шифрования для нескольких получателей: " + e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return null;
+    }
+
+    private void removeKey(String username) {
+        Long keyId = keyIds.remove(username);
+        if (keyId == null) {
+            return;
+        }
+        try {
+            keyStore.deletePublicKey(keyId);
+        } catch (PGPException e) {
+            System.err.println("Ошибка удаления ключа получателя: " + e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package server;
+
+/**
+ * Команда {@code resume|token|id[|history_bundle]} - возобновление
+ * сессии после разрыва связи вместо {@code sign_in}.
+ * <p>
+ * Пароль не проверяется: токен, выданный при входе, одноразовый и
+ * принадлежит пользователю, назвавшемуся при обмене ключами. Токен
+ * удаляется только после захвата сессии, поэтому отказ в захвате его
+ * не расходует. Клиент
+ * возвращается в прежнюю комнату и получает только сообщения после
+ * {@code id}; если {@code id} не указан или равен 0, используется
+ * последнее сообщение истории, которое сервер успел отправить клиенту
+ * до разрыва. Прежняя сессия этого
+ * пользователя на узле, если сервер еще не заметил разрыв, закрывается.
+ * Ответ: {@code successful_resume|room}, новый токен и сообщения с
+ * {@code history_delta|id}, либо {@code failed_resume}, после чего
+ * клиент может войти обычным образом.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class ResumeCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "resume";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        String token = request.requireField(0);
+        long lastSeenId = 0;
+        try {
+            if (request.getField(1) != null && !request.getField(1).isEmpty()) {
+                lastSeenId = Long.parseLong(request.getField(1));
+            }
+        } catch (NumberFormatException e) {
+            client.sendMessage("|SERVER|invalid resume request");
+            return true;
+        }
+        client.setHistoryBundles(request.hasField(2, "history_bundle"));
+
+        String clientUsername = client.getClientUsername();
+        if (client.isSignedIn()) {
+            client.sendMessage("failed_resume");
+            return true;
+        }
+        String tokenHash = ResumeToken.hash(token);
+        if (!client.getDb().isValidResumeToken(tokenHash, clientUsername)) {
+            client.sendMessage("failed_resume");
+            return true;
+        }
+
+        ClientHandler previous = ClientHandler.sessionRegistry.get(clientUsername);
+        if (previous != null) {
+            // сокет прежней сессии может быть уже мертв, поэтому его закрытие не ждем
+            previous.removeClientHandler();
+            Thread.ofVirtual().start(previous::closeEverything);
+        }
+        if (!client.registerSession()) {
+            client.sendMessage("failed_resume");
+            return true;
+        }
+        // токен читается после ухода прежней сессии, которая обновила в нем последнее сообщение
+        String[] session = client.getDb().consumeResumeToken(tokenHash, clientUsername);
+        if (session == null) {
+            // токен истек или использован параллельным возобновлением
+            client.unregisterSession();
+            client.sendMessage("failed_resume");
+            return true;
+        }
+        ClientHandler.cluster.publishSignIn(clientUsername);
+        PGP.getRecipientKeyring().add(clientUsername, client.getClientPublicKey());
+
+        String room = RoomRegistry.isValidName(session[0]) ? session[0] : RoomRegistry.DEFAULT_ROOM;
+        client.joinRoom(room);
+        client.sendMessage("successful_resume|" + room);
+        long afterId = lastSeenId > 0 ? lastSeenId : Long.parseLong(session[1]);
+        client.issueResumeToken(afterId);
+
+        client.sendHistorySince(afterId);
+        client.sendPendingDirectMessages();
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * Токены возобновления сессии.
+ * <p>
+ * Токен выдается клиенту при входе и позволяет после разрыва связи
+ * вернуться в сессию командой {@code resume} без проверки пароля и без
+ * полной отправки истории. Токен одноразовый: при возобновлении он
+ * удаляется и клиент получает новый. В БД хранится только хэш токена.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public final class ResumeToken {
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final int TOKEN_BYTES = 32;
+
+    private ResumeToken() {}
+
+    /**
+     * @return новый случайный токен в Base64 без символов {@code |}
+     */
+    public static String generate() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @param token токен
+     * @return SHA-256 токена в шестнадцатеричном виде
+     */
+    public static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Комнаты чата и их участники.
+ * <p>
+ * Каждая вошедшая сессия находится ровно в одной комнате, сначала в
+ * {@link #DEFAULT_ROOM}. Сообщения чата рассылаются только участникам
+ * комнаты отправителя, поэтому стоимость рассылки зависит от размера
+ * комнаты, а не от числа подключенных клиентов. Пустые комнаты, кроме
+ * комнаты по умолчанию, удаляются.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class RoomRegistry {
+
+    /** комната, в которую попадает клиент после входа */
+    public static final String DEFAULT_ROOM = "general";
+
+    /** комната служебных сообщений сервера, которые получают все клиенты */
+    public static final String GLOBAL_ROOM = "*";
+
+    private static final int MAX_NAME_LENGTH = 32;
+
+    private final Map<String, Set<ClientHandler>> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * @param name имя комнаты
+     * @return {@code true}, если имя состоит из 1-32 латинских букв
+     * в нижнем регистре, цифр, {@code _} и {@code -}
+     */
+    public static boolean isValidName(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '_' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * добавляет сессию в комнату, создавая комнату при необходимости
+     * @param room имя комнаты
+     * @param handler обработчик клиента
+     */
+    public void join(String room, ClientHandler handler) {
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            members.add(handler);
+            return members;
+        });
+    }
+
+    /**
+     * удаляет сессию из комнаты и удаляет опустевшую комнату
+     * @param room имя комнаты
+     * @param handler обработчик клиента
+     */
+    public void leave(String room, ClientHandler handler) {
+        rooms.computeIfPresent(room, (name, members) -> {
+            members.remove(handler);
+            return members.isEmpty() && !name.equals(DEFAULT_ROOM) ? null : members;
+        });
+    }
+
+    /**
+     * @param room имя комнаты
+     * @return участники комнаты; коллекция отражает последующие изменения
+     */
+    public Collection<ClientHandler> getMembers(String room) {
+        Set<ClientHandler> members = rooms.get(room);
+        return members != null ? members : Collections.emptySet();
+    }
+
+    /**
+     * @return имена комнат с числом участников, по алфавиту
+     */
+    public Map<String, Integer> getSizes() {
+        Map<String, Integer> sizes = new TreeMap<>();
+        rooms.forEach((name, members) -> sizes.put(name, members.size()));
+        return sizes;
+    }
+
+    /**
+     * @return число комнат
+     */
+    public int size() {
+        return rooms.size();
+    }
+}
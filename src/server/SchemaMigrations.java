@@ -0,0 +1,134 @@
+package server;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Версионированные миграции схемы БД.
+ * <p>
+ * Номер последней примененной миграции хранится в таблице
+ * {@code schema_version}. При запуске применяются только миграции с
+ * большим номером, каждая в своей транзакции, поэтому повторный запуск
+ * не выполняет уже примененные изменения. Новые изменения схемы
+ * добавляются в конец списка {@link #MIGRATIONS} со следующим номером.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public final class SchemaMigrations {
+
+    /**
+     * Одна миграция: номер версии, описание и SQL-запросы.
+     */
+    static final class Migration {
+        final int version;
+        final String description;
+        final String[] statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+
+    static final List<Migration> MIGRATIONS = List.of(
+            // таблицы могли быть созданы до появления миграций, поэтому IF NOT EXISTS
+            new Migration(1, "initial tables",
+                    "CREATE TABLE IF NOT EXISTS 'users'" +
+                            "('username' TEXT PRIMARY KEY, 'password' TEXT, 'email' TEXT)",
+                    "CREATE TABLE IF NOT EXISTS 'rating'('username' TEXT PRIMARY KEY, 'score' INTEGER)",
+                    "CREATE TABLE IF NOT EXISTS 'chat_history'" +
+                            "('id' INTEGER PRIMARY KEY AUTOINCREMENT, 'date' TEXT, 'sender' TEXT, 'message' TEXT)",
+                    "CREATE TABLE IF NOT EXISTS 'flags'" +
+                            "('id' INTEGER PRIMARY KEY AUTOINCREMENT, 'flag' TEXT, 'encrypt_flag' TEXT, 'cost' INTEGER)",
+                    "CREATE TABLE IF NOT EXISTS 'sent_flags'('name' TEXT PRIMARY KEY, 'count' INTEGER)",
+                    "INSERT OR IGNORE INTO 'sent_flags' ('name', 'count') VALUES('sent_flag_count', 0)"),
+            new Migration(2, "indexes for flag and sender lookups",
+                    "CREATE INDEX IF NOT EXISTS 'idx_flags_flag' ON 'flags'('flag')",
+                    "CREATE INDEX IF NOT EXISTS 'idx_chat_history_sender' ON 'chat_history'('sender')"),
+            new Migration(3, "solved flags",
+                    "CREATE TABLE IF NOT EXISTS 'solves'('username' TEXT NOT NULL, 'flag_id' INTEGER NOT NULL, " +
+                            "'solved_at' TEXT, PRIMARY KEY ('username', 'flag_id'))"),
+            // служебные сообщения сервера получали все клиенты, поэтому они переносятся в общую комнату
+            new Migration(4, "chat rooms",
+                    "ALTER TABLE 'chat_history' ADD COLUMN 'room_id' TEXT NOT NULL DEFAULT '" +
+                            RoomRegistry.DEFAULT_ROOM + "'",
+                    "UPDATE 'chat_history' SET 'room_id' = '" + RoomRegistry.GLOBAL_ROOM + "' WHERE sender = 'SERVER'",
+                    "CREATE INDEX IF NOT EXISTS 'idx_chat_history_room' ON 'chat_history'('room_id', 'id')"),
+            // частичный индекс содержит только недоставленные сообщения и остается маленьким
+            new Migration(5, "direct messages",
+                    "CREATE TABLE IF NOT EXISTS 'direct_messages'('id' INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "'conversation' TEXT NOT NULL, 'date' TEXT, 'sender' TEXT NOT NULL, " +
+                            "'recipient' TEXT NOT NULL, 'message' TEXT, 'delivered' INTEGER NOT NULL DEFAULT 0)",
+                    "CREATE INDEX IF NOT EXISTS 'idx_direct_messages_conversation' " +
+                            "ON 'direct_messages'('conversation', 'id')",
+                    "CREATE INDEX IF NOT EXISTS 'idx_direct_messages_pending' " +
+                            "ON 'direct_messages'('recipient', 'id') WHERE delivered = 0"),
+            new Migration(6, "cluster leases",
+                    "CREATE TABLE IF NOT EXISTS 'cluster_leases'('name' TEXT PRIMARY KEY, " +
+                            "'owner' TEXT NOT NULL, 'expires_at' INTEGER NOT NULL)"),
+            // хранится хэш токена, поэтому утечка БД не позволяет возобновить чужую сессию
+            new Migration(7, "session resume tokens",
+                    "CREATE TABLE IF NOT EXISTS 'resume_tokens'('token_hash' TEXT PRIMARY KEY, " +
+                            "'username' TEXT NOT NULL, 'room_id' TEXT NOT NULL, 'last_id' INTEGER NOT NULL, " +
+                            "'expires_at' INTEGER NOT NULL)",
+                    "CREATE INDEX IF NOT EXISTS 'idx_resume_tokens_expires' ON 'resume_tokens'('expires_at')"),
+            // строка захватывается одной командой, поэтому два узла не могут впустить одного пользователя
+            new Migration(8, "session owners",
+                    "CREATE TABLE IF NOT EXISTS 'session_owners'('username' TEXT PRIMARY KEY, " +
+                            "'node' TEXT NOT NULL, 'session_id' TEXT NOT NULL)")
+    );
+
+    private SchemaMigrations() {}
+
+    /**
+     * применяет непримененные миграции
+     * @param connection соединение-писатель в режиме автофиксации
+     * @return номер версии схемы после миграции
+     */
+    public static int migrate(CachedConnection connection) throws SQLException {
+        connection.execute("CREATE TABLE IF NOT EXISTS 'schema_version'" +
+                "('version' INTEGER PRIMARY KEY, 'description' TEXT, 'applied_at' TEXT)");
+
+        int currentVersion = getVersion(connection);
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= currentVersion) {
+                continue;
+            }
+            apply(connection, migration);
+            currentVersion = migration.version;
+            System.out.println("Применена миграция БД " + migration.version + ": " + migration.description);
+        }
+        return currentVersion;
+    }
+
+    private static int getVersion(CachedConnection connection) throws SQLException {
+        PreparedStatement statement = connection.prepare("SELECT MAX(version) AS version FROM schema_version");
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getInt("version") : 0;
+        }
+    }
+
+    private static void apply(CachedConnection connection, Migration migration) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            for (String statement : migration.statements) {
+                connection.execute(statement);
+            }
+            PreparedStatement statement = connection.prepare("INSERT INTO 'schema_version' " +
+                    "('version', 'description', 'applied_at') VALUES(?, ?, datetime('now'))");
+            statement.setInt(1, migration.version);
+            statement.setString(2, migration.description);
+            statement.execute();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
@@ -14,16 +14,32 @@ import java.util.Scanner;
 public class Server {
 
     private final ServerSocket serverSocket;
+    private final ConnectionEngine connectionEngine;
+    private final ServerKeyStore serverKeyStore;
+    private final MailOutbox mailOutbox;
+    private final FlagReleaseScheduler flagReleaseScheduler;
+    private final MetricsServer metricsServer;
     Database db;
     private Thread addNewFlagHandlerThread = new Thread();
 
     /**
      * Конструктор класса {@code Server}.
      * @param serverSocket сервер сокет для ожидания подключения
+     * @param connectionEngine движок, исполняющий обработчики клиентов
+     * @param serverKeyStore хранилище ключа сервера
+     * @param mailOutbox очередь исходящих писем
      */
-    public Server(ServerSocket serverSocket) {
+    public Server(ServerSocket serverSocket, ConnectionEngine connectionEngine, ServerKeyStore serverKeyStore,
+                  MailOutbox mailOutbox) {
         this.serverSocket = serverSocket;
+        this.connectionEngine = connectionEngine;
+        this.serverKeyStore = serverKeyStore;
+        this.mailOutbox = mailOutbox;
         db = new Database();
+        flagReleaseScheduler = FlagReleaseScheduler.fromConfig(db);
+        Metrics.gauge("chat_active_connections", "Connections running on the connection engine",
+                connectionEngine::getActiveConnections);
+        metricsServer = MetricsServer.fromConfig();
     }
 
     /**
@@ -65,7 +81,7 @@ public class Server {
                                 break;
                         }
                     }
-                    ClientHandler.flagHandlerThread.start();
+                    flagReleaseScheduler.trigger();
                     System.out.println("Flag added");
                     in.close();
                 } catch (Exception ignored) {
@@ -78,30 +94,34 @@ public class Server {
 
     /**
      * Метод <b>startServer</b> запускает сервер и ожидает подключения к себе.
-     * После этого создается и запускается новый поток для работы с
-     * новоподключившимся клиентом.
+     * После этого обработчик новоподключившегося клиента передается
+     * движку подключений.
      */
     public void startServer() {
 
-        System.out.println("Сервер запущен...");
+        System.out.println("Сервер запущен (движок: " + connectionEngine.getMode() + ")...");
+        ClientHandler.cluster.start(db, ClusterBus.fromConfig());
+        flagReleaseScheduler.start();
 
-        try {
-
-            while (!serverSocket.isClosed()) {
+        while (!serverSocket.isClosed()) {
+            try {
 
                 Socket socket = serverSocket.accept();
+                connectionEngine.submit(new ClientHandler(socket, db, serverKeyStore, mailOutbox));
 
-                Thread newClientThread = new Thread(new ClientHandler(socket, db));
-                newClientThread.start();
-
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Ошибка приема подключения: " + e);
+                }
             }
-
-        } catch (IOException e) {
-            e.printStackTrace();
         }
 
     }
 
+    /**
+     * Останавливает прием подключений, закрывает открытые сессии
+     * и соединение с БД
+     */
     public void closeServer() {
 
         try {
@@ -109,9 +129,19 @@ public class Server {
             if (serverSocket != null) {
                 serverSocket.close();
             }
+            flagReleaseScheduler.close();
+            connectionEngine.shutdown(ServerConfig.SHUTDOWN_TIMEOUT_MS);
+            ClientHandler.cluster.close();
+            System.out.println("Статистика команд:\n" + ClientHandler.commandRouter);
+            System.out.println("Сжатие сообщений: " + PayloadCompression.getStats());
+            serverKeyStore.close();
+            mailOutbox.close();
             if (db != null) {
                 db.close();
             }
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -121,8 +151,10 @@ public class Server {
 
     public static void main(String[] args) throws IOException {
 
-        ServerSocket serverSocket = new ServerSocket(9090);
-        Server server = new Server(serverSocket);
+        ServerSocket serverSocket = new ServerSocket(ServerConfig.PORT);
+        Server server = new Server(serverSocket, ConnectionEngine.fromConfig(), ServerKeyStore.fromConfig(),
+                MailOutbox.fromConfig());
+        Runtime.getRuntime().addShutdownHook(new Thread(server::closeServer));
         server.startServer();
 
     }
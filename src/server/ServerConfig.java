@@ -0,0 +1,183 @@
+package server;
+
+/**
+ * Настройки сервера, читаемые из переменных окружения при запуске.
+ * <p>
+ * Если переменная не задана или задана некорректно, используется
+ * значение по умолчанию.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public final class ServerConfig {
+
+    /** порт, на котором сервер ожидает подключения */
+    public static final int PORT = getInt("CHAT_PORT", 9090);
+
+    /** режим движка подключений: {@code virtual} или {@code pool} */
+    public static final String ENGINE_MODE = getString("CHAT_ENGINE", "virtual");
+
+    /** максимальное число одновременных сессий в режиме {@code pool} */
+    public static final int POOL_SIZE = getInt("CHAT_POOL_SIZE", 256);
+
+    /** время ожидания завершения сессий при остановке сервера, мс */
+    public static final long SHUTDOWN_TIMEOUT_MS = getLong("CHAT_SHUTDOWN_TIMEOUT_MS", 5000);
+
+    /** интервал ротации ключа сервера в часах, {@code 0} - без ротации */
+    public static final long KEY_ROTATION_HOURS = getLong("CHAT_KEY_ROTATION_HOURS", 0);
+
+    /** максимальное число разобранных ключей каждого вида в памяти */
+    public static final int KEYRING_CACHE_SIZE = getInt("CHAT_KEYRING_CACHE_SIZE", 4096);
+
+    /** шифровать рассылку одним сообщением для всех получателей вместо отдельного для каждого */
+    public static final boolean SHARED_BROADCAST = Boolean.parseBoolean(getString("CHAT_SHARED_BROADCAST", "true"));
+
+    /** емкость очереди исходящих сообщений одного клиента */
+    public static final int OUTBOUND_QUEUE_SIZE = getInt("CHAT_OUTBOUND_QUEUE_SIZE", 1024);
+
+    /** время ожидания места в очереди для ответов самому клиенту, мс */
+    public static final long SEND_TIMEOUT_MS = getLong("CHAT_SEND_TIMEOUT_MS", 5000);
+
+    /** емкость очереди журнала истории сообщений */
+    public static final int JOURNAL_CAPACITY = getInt("CHAT_JOURNAL_CAPACITY", 65536);
+
+    /** число сообщений, при котором журнал записывает пачку досрочно */
+    public static final int JOURNAL_BATCH_SIZE = getInt("CHAT_JOURNAL_BATCH_SIZE", 256);
+
+    /** максимальная задержка записи сообщения журналом, мс; определяет потери при сбое */
+    public static final long JOURNAL_FLUSH_INTERVAL_MS = getLong("CHAT_JOURNAL_FLUSH_INTERVAL_MS", 200);
+
+    /** число сообщений истории, отправляемых при входе и на один запрос более старых */
+    public static final int HISTORY_PAGE_SIZE = getInt("CHAT_HISTORY_PAGE_SIZE", 100);
+
+    /** адрес JDBC файла БД */
+    public static final String DB_URL = getString("CHAT_DB_URL", "jdbc:sqlite:src/server/res/db/database.db");
+
+    /** число соединений с БД только для чтения */
+    public static final int DB_READERS = getInt("CHAT_DB_READERS", 4);
+
+    /** число игроков, выводимых командой {@code !rating} */
+    public static final int LEADERBOARD_TOP = getInt("CHAT_LEADERBOARD_TOP", 10);
+
+    /** адрес SMTP сервера */
+    public static final String SMTP_HOST = getString("CHAT_SMTP_HOST", "smtp.gmail.com");
+
+    /** порт SMTP сервера */
+    public static final int SMTP_PORT = getInt("CHAT_SMTP_PORT", 587);
+
+    /** использовать ли STARTTLS при подключении к SMTP серверу */
+    public static final boolean SMTP_STARTTLS = Boolean.parseBoolean(getString("CHAT_SMTP_STARTTLS", "true"));
+
+    /** емкость очереди исходящих писем */
+    public static final int MAIL_QUEUE_SIZE = getInt("CHAT_MAIL_QUEUE_SIZE", 256);
+
+    /** число потоков отправки писем, у каждого свое SMTP соединение */
+    public static final int MAIL_WORKERS = getInt("CHAT_MAIL_WORKERS", 1);
+
+    /** максимальное число попыток отправки письма */
+    public static final int MAIL_MAX_ATTEMPTS = getInt("CHAT_MAIL_MAX_ATTEMPTS", 4);
+
+    /** задержка перед первой повторной отправкой письма, мс; далее удваивается */
+    public static final long MAIL_RETRY_DELAY_MS = getLong("CHAT_MAIL_RETRY_DELAY_MS", 2000);
+
+    /** задержка публикации первого неопубликованного флага после запуска, мс */
+    public static final long FLAG_RELEASE_DELAY_MS = getLong("CHAT_FLAG_RELEASE_DELAY_MS", 0);
+
+    /** интервал между публикациями флагов, мс */
+    public static final long FLAG_RELEASE_INTERVAL_MS = getLong("CHAT_FLAG_RELEASE_INTERVAL_MS", 1000);
+
+    /** протокол обмена с клиентами: {@code auto}, {@code framed} или {@code legacy} */
+    public static final String PROTOCOL = getString("CHAT_PROTOCOL", MessageChannel.AUTO);
+
+    /** максимальный размер входящего кадра, байт */
+    public static final int MAX_FRAME_BYTES = getInt("CHAT_MAX_FRAME_BYTES", 1024 * 1024);
+
+    /** время ожидания первых байт клиента для определения протокола, мс */
+    public static final int PROTOCOL_DETECT_TIMEOUT_MS = getInt("CHAT_PROTOCOL_DETECT_TIMEOUT_MS", 2000);
+
+    /** предпочтительный режим сжатия сообщений клиентам, {@code none} отключает сжатие */
+    public static final PayloadCompression COMPRESSION =
+            PayloadCompression.fromName(getString("CHAT_COMPRESSION", "deflate_dict"));
+
+    /** минимальная длина сообщения, которое сжимается перед шифрованием */
+    public static final int COMPRESSION_THRESHOLD = getInt("CHAT_COMPRESSION_THRESHOLD", 256);
+
+    /** рассылать всем клиентам сообщения, не являющиеся командами */
+    public static final boolean PUBLIC_CHAT = Boolean.parseBoolean(getString("CHAT_PUBLIC_CHAT", "false"));
+
+    /** порт HTTP метрик на loopback; 0 - только JMX, -1 - метрики не публикуются */
+    public static final int METRICS_PORT = getInt("CHAT_METRICS_PORT", 9464);
+
+    /** имя узла кластера, уникальное и постоянное между перезапусками */
+    public static final String NODE_ID = getString("CHAT_NODE_ID", "node-" + PORT);
+
+    /** порт шины кластера; -1 - сервер работает один */
+    public static final int CLUSTER_PORT = getInt("CHAT_CLUSTER_PORT", -1);
+
+    /** адрес, на котором шина кластера принимает подключения других узлов */
+    public static final String CLUSTER_BIND = getString("CHAT_CLUSTER_BIND", "127.0.0.1");
+
+    /** адреса шин других узлов через запятую, например {@code 127.0.0.1:9191,127.0.0.1:9192} */
+    public static final String CLUSTER_PEERS = getString("CHAT_CLUSTER_PEERS", "");
+
+    /** общий секрет, который узел предъявляет при подключении к другим узлам */
+    public static final String CLUSTER_SECRET = getString("CHAT_CLUSTER_SECRET", "");
+
+    /** интервал повторного подключения к недоступному узлу, мс */
+    public static final long CLUSTER_RECONNECT_MS = getLong("CHAT_CLUSTER_RECONNECT_MS", 1000);
+
+    /** срок действия токена возобновления сессии после отключения клиента, мс; 0 - токены не выдаются */
+    public static final long RESUME_TOKEN_TTL_MS = getLong("CHAT_RESUME_TOKEN_TTL_MS", 600000);
+
+    /** срок аренды узла; по его истечении сессии узла могут захватить другие узлы, мс */
+    public static final long NODE_LEASE_MS = getLong("CHAT_NODE_LEASE_MS", 15000);
+
+    /** срок аренды публикации флагов; по его истечении публикацию может взять другой узел, мс */
+    public static final long FLAG_LEASE_MS = getLong("CHAT_FLAG_LEASE_MS", 10000);
+
+    private ServerConfig() {}
+
+    /**
+     * возвращает строковое значение переменной окружения
+     * @param name имя переменной
+     * @param defaultValue значение по умолчанию
+     * @return String
+     */
+    static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    /**
+     * возвращает целочисленное значение переменной окружения
+     * @param name имя переменной
+     * @param defaultValue значение по умолчанию
+     * @return int
+     */
+    static int getInt(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(getString(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Некорректное значение " + name + ", используется " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * возвращает значение переменной окружения типа long
+     * @param name имя переменной
+     * @param defaultValue значение по умолчанию
+     * @return long
+     */
+    static long getLong(String name, long defaultValue) {
+        try {
+            return Long.parseLong(getString(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Некорректное значение " + name + ", используется " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Хранилище ключа сервера.
+ * <p>
+ * Ключ загружается с диска или генерируется один раз при запуске и
+ * используется всеми обработчиками клиентов. При заданном интервале
+ * ротации периодически создается новое поколение ключа; сессии,
+ * начатые со старым ключом, продолжают им пользоваться. Сессии
+ * захватывают ключ при обмене ключами и освобождают при завершении,
+ * и файлы прежнего поколения удаляются, только когда его больше не
+ * использует ни одна сессия: ключ может быть вытеснен из кэша
+ * {@link PGP} и перечитан с диска в любой момент сессии.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class ServerKeyStore {
+
+    private static final String KEY_NAME_PREFIX = "server_";
+    private static final Pattern KEY_FILE_PATTERN = Pattern.compile("PrivateKey_" + KEY_NAME_PREFIX + "(\\d+)\\.pgp");
+
+    /**
+     * Ключ сервера одного поколения.
+     */
+    public static final class ServerKey {
+        private final int generation;
+        private final String name;
+        private final String publicKey;
+        // число сессий, использующих ключ; изменяется под блокировкой хранилища
+        private int sessions = 0;
+
+        private ServerKey(int generation, String name, String publicKey) {
+            this.generation = generation;
+            this.name = name;
+            this.publicKey = publicKey;
+        }
+
+        /**
+         * @return имя владельца ключа, используемое для расшифровки
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return публичный ключ в ASCII armor
+         */
+        public String getPublicKey() {
+            return publicKey;
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+    }
+
+    private final PGP pgp;
+    private volatile ServerKey currentKey;
+    private ScheduledExecutorService rotationExecutor;
+
+    /**
+     * Конструктор класса {@code ServerKeyStore}. Загружает последнее
+     * поколение ключа из каталога ключей, либо генерирует новое.
+     * @param pgp криптографер, используемый для генерации ключей
+     */
+    public ServerKeyStore(PGP pgp) {
+        this.pgp = pgp;
+
+        int generation = findLatestGeneration();
+        if (generation > 0) {
+            currentKey = loadKey(generation);
+        }
+        if (currentKey == null) {
+            currentKey = generateKey(generation + 1);
+        }
+        if (currentKey == null) {
+            throw new IllegalStateException("Не удалось загрузить или создать ключ сервера в " + pgp.defaultKeysFilepath);
+        }
+    }
+
+    /**
+     * создает хранилище и запускает ротацию ключа по настройкам из {@link ServerConfig}
+     * @return {@code ServerKeyStore}
+     */
+    public static ServerKeyStore fromConfig() {
+        ServerKeyStore keyStore = new ServerKeyStore(new PGP());
+        keyStore.startRotation(ServerConfig.KEY_ROTATION_HOURS, TimeUnit.HOURS);
+        return keyStore;
+    }
+
+    /**
+     * @return текущий ключ сервера, который отправляется новым клиентам
+     */
+    public ServerKey getCurrentKey() {
+        return currentKey;
+    }
+
+    /**
+     * захватывает текущий ключ для новой сессии. Файлы ключа не удаляются,
+     * пока он не освобожден вызовом {@link #releaseKey(ServerKey)}.
+     * @return текущий ключ сервера
+     */
+    public synchronized ServerKey acquireKey() {
+        currentKey.sessions++;
+        return currentKey;
+    }
+
+    /**
+     * освобождает ключ завершенной сессии и удаляет файлы прежнего
+     * поколения, если его больше не использует ни одна сессия
+     * @param key ключ, полученный из {@link #acquireKey()}
+     */
+    public synchronized void releaseKey(ServerKey key) {
+        key.sessions--;
+        if (key != currentKey && key.sessions == 0) {
+            deleteKeyFiles(key.getGeneration());
+        }
+    }
+
+    /**
+     * запускает периодическую ротацию ключа
+     * @param period интервал ротации, при значении {@code <= 0} ротация не выполняется
+     * @param unit единица измерения интервала
+     */
+    public synchronized void startRotation(long period, TimeUnit unit) {
+        if (period <= 0 || rotationExecutor != null) {
+            return;
+        }
+        rotationExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "server-key-rotation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rotationExecutor.scheduleAtFixedRate(this::rotate, period, period, unit);
+    }
+
+    /**
+     * генерирует новое поколение ключа. Файлы прежнего поколения
+     * удаляются сразу, если у него нет сессий, иначе - при освобождении
+     * ключа последней из них.
+     */
+    public void rotate() {
+        // генерация выполняется без блокировки, чтобы не задерживать обмен ключами
+        ServerKey newKey = generateKey(currentKey.getGeneration() + 1);
+        if (newKey == null) {
+            return;
+        }
+        synchronized (this) {
+            ServerKey previousKey = currentKey;
+            currentKey = newKey;
+            if (previousKey.sessions == 0) {
+                deleteKeyFiles(previousKey.getGeneration());
+            }
+        }
+        System.out.println("Ключ сервера обновлен: " + newKey.getName());
+    }
+
+    /**
+     * останавливает ротацию ключа
+     */
+    public synchronized void close() {
+        if (rotationExecutor != null) {
+            rotationExecutor.shutdownNow();
+            rotationExecutor = null;
+        }
+    }
+
+    private ServerKey generateKey(int generation) {
+        String name = KEY_NAME_PREFIX + generation;
+        pgp.generateKeyPair(name);
+        return loadKey(generation);
+    }
+
+    private ServerKey loadKey(int generation) {
+        String name = KEY_NAME_PREFIX + generation;
+        try {
+            String publicKey = new String(Files.readAllBytes(Paths.get(pgp.getPublicKeyFilepath(name))));
+            return new ServerKey(generation, name, publicKey);
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения ключа сервера: " + e);
+        }
+        return null;
+    }
+
+    private int findLatestGeneration() {
+        File[] files = new File(pgp.defaultKeysFilepath).listFiles();
+        int latest = 0;
+        if (files == null) {
+            return latest;
+        }
+        for (File file : files) {
+            Matcher matcher = KEY_FILE_PATTERN.matcher(file.getName());
+            if (matcher.matches()) {
+                latest = Math.max(latest, Integer.parseInt(matcher.group(1)));
+            }
+        }
+        return latest;
+    }
+
+    private void deleteKeyFiles(int generation) {
+        if (generation <= 0) {
+            return;
+        }
+        String name = KEY_NAME_PREFIX + generation;
+        try {
+            Files.deleteIfExists(Paths.get(pgp.getPublicKeyFilepath(name)));
+            Files.deleteIfExists(Paths.get(pgp.getPrivateKeyFilepath(name)));
+        } catch (IOException e) {
+            System.err.println("Ошибка удаления старого ключа сервера: " + e);
+        }
+    }
+}
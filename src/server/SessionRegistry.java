@@ -0,0 +1,98 @@
+package server;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Реестр вошедших в чат клиентов, индексированный по имени пользователя.
+ * <p>
+ * Поиск по имени выполняется за O(1), а обход безопасен при
+ * одновременных подключениях и отключениях: он отражает состояние
+ * реестра на момент обхода или позже и никогда не бросает
+ * {@code ConcurrentModificationException}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class SessionRegistry {
+
+    private final ConcurrentMap<String, ClientHandler> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * атомарно регистрирует сессию, если пользователь еще не в чате
+     * @param username имя пользователя
+     * @param clientHandler обработчик клиента
+     * @return {@code true}, если сессия зарегистрирована, {@code false},
+     * если пользователь уже вошел с другого подключения
+     */
+    public boolean registerIfAbsent(String username, ClientHandler clientHandler) {
+        return sessions.putIfAbsent(username, clientHandler) == null;
+    }
+
+    /**
+     * удаляет сессию, только если пользователь зарегистрирован именно
+     * этим обработчиком
+     * @param username имя пользователя
+     * @param clientHandler обработчик клиента
+     * @return {@code true}, если сессия была удалена
+     */
+    public boolean unregister(String username, ClientHandler clientHandler) {
+        if (username == null) {
+            return false;
+        }
+        return sessions.remove(username, clientHandler);
+    }
+
+    /**
+     * @param username имя пользователя
+     * @return обработчик клиента, либо {@code null}, если пользователь не в чате
+     */
+    public ClientHandler get(String username) {
+        return sessions.get(username);
+    }
+
+    public boolean contains(String username) {
+        return sessions.containsKey(username);
+    }
+
+    /**
+     * @return представление всех сессий, безопасное для обхода при изменениях реестра
+     */
+    public Collection<ClientHandler> getAll() {
+        return sessions.values();
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return число сообщений в исходящих очередях всех сессий
+     */
+    public long getQueuedMessages() {
+        long total = 0;
+        for (ClientHandler clientHandler : sessions.values()) {
+            OutboundQueue outboundQueue = clientHandler.getOutboundQueue();
+            if (outboundQueue != null) {
+                total += outboundQueue.getDepth();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return наибольшая глубина исходящей очереди среди сессий;
+     * растет, когда один из клиентов не успевает читать
+     */
+    public long getMaxQueueDepth() {
+        long max = 0;
+        for (ClientHandler clientHandler : sessions.values()) {
+            OutboundQueue outboundQueue = clientHandler.getOutboundQueue();
+            if (outboundQueue != null) {
+                max = Math.max(max, outboundQueue.getDepth());
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,46 @@
+package server;
+
+/**
+ * Команда входа {@code sign_in|username|password[|history_bundle][|resume]}.
+ * С флагом {@code resume} клиент получает токен возобновления сессии,
+ * см. {@link ResumeCommand}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class SignInCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "sign_in";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        String username = request.requireField(0);
+        String password = request.requireField(1);
+        // необязательное поле: клиент умеет принимать историю одним кадром
+        client.setHistoryBundles(request.hasField(2, "history_bundle"));
+
+        String clientUsername = client.getClientUsername();
+        // регистрация на узле и владение сессией в общей БД атомарны,
+        // поэтому повторный вход невозможен ни на этом, ни на другом узле
+        if (client.getDb().authenticationUser(username, password) && client.registerSession()) {
+            ClientHandler.cluster.publishSignIn(clientUsername);
+            client.sendMessage("successful_sign_in");
+            PGP.getRecipientKeyring().add(clientUsername, client.getClientPublicKey());
+            client.joinRoom(RoomRegistry.DEFAULT_ROOM);
+            if (request.hasField(2, "resume")) {
+                client.issueResumeToken(0);
+            }
+
+            client.sendChatHistory();
+            client.sendPendingDirectMessages();
+            return true;
+        } else {
+            client.sendMessage("failed_sign_in");
+            client.closeEverything();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package server;
+
+/**
+ * Команда регистрации {@code sign_up|username|password|email}.
+ * <p>
+ * На указанный адрес отправляется секретный код, после чего команда
+ * ожидает его от клиента. Строка {@code back} отменяет регистрацию.
+ * Если письмо не принято в очередь отправки, клиент получает
+ * {@code failed_pre_sign_up}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class SignUpCommand implements Command {
+
+    @Override
+    public String getOpcode() {
+        return "sign_up";
+    }
+
+    @Override
+    public boolean execute(ClientHandler client, CommandRequest request) {
+        String username = request.requireField(0);
+        String password = request.requireField(1);
+        String email = request.requireField(2);
+        Database db = client.getDb();
+
+        if (db.userNotRegistered(username)) {
+            String secretCode = client.getPgp().generateSecretCode(6);
+
+            MailOutbox.Ticket ticket = client.getMailOutbox().submit(email,
+                    "JavaChat registration secret code", "Secret code: " + secretCode);
+            if (ticket.getStatus() == MailOutbox.Status.FAILED) {
+                // код не будет отправлен, ждать его от клиента бессмысленно
+                client.sendMessage("failed_pre_sign_up");
+                client.closeEverything();
+                return false;
+            }
+            client.sendMessage("successful_pre_sign_up");
+
+            while (client.isConnected()) {
+
+                String userSecretCode = client.waitMessage();
+                if (userSecretCode == null || userSecretCode.equals("back")) {
+                    return false;
+                }
+
+                if (secretCode.equals(userSecretCode)) {
+                    db.createUser(username, password, email);
+                    ClientHandler.cluster.publishScore(username);
+                    client.sendMessage("successful_sign_up");
+                    client.closeEverything();
+                    return true;
+                } else {
+                    client.sendMessage("failed_sign_up");
+                }
+            }
+
+        } else {
+            client.sendMessage("failed_pre_sign_up");
+            client.closeEverything();
+        }
+        return false;
+    }
+}
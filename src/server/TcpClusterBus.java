@@ -0,0 +1,287 @@
+package server;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Шина кластера поверх TCP.
+ * <p>
+ * Каждый узел принимает подключения других узлов и сам подключается к
+ * каждому узлу из списка. По исходящему соединению узел только
+ * отправляет события, по входящему - только принимает, поэтому между
+ * двумя узлами два соединения. Исходящие события ставятся в
+ * ограниченную очередь узла и пишутся отдельным потоком, так что
+ * медленный узел не задерживает рассылку. Пока связи с узлом нет,
+ * события для него отбрасываются, а подключение повторяется.
+ * <p>
+ * Для нескольких узлов на одной машине достаточно разных портов на
+ * {@code 127.0.0.1}.
+ *
+ * @author Kirill Chezlov
+ * @version 1.0
+ */
+public class TcpClusterBus implements ClusterBus {
+
+    private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+
+    private final String nodeId;
+    private final String bindAddress;
+    private final int port;
+    private final byte[] secret;
+    private final long reconnectMs;
+    private final List<PeerLink> links = new ArrayList<>();
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>();
+    private ServerSocket serverSocket;
+    private Listener listener;
+    private volatile boolean closed = false;
+
+    /**
+     * Конструктор класса {@code TcpClusterBus}.
+     * @param nodeId имя этого узла
+     * @param bindAddress адрес приема подключений других узлов
+     * @param port порт приема подключений других узлов
+     * @param peers адреса других узлов
+     * @param secret общий секрет узлов
+     * @param reconnectMs интервал повторного подключения, мс
+     */
+    public TcpClusterBus(String nodeId, String bindAddress, int port, List<InetSocketAddress> peers,
+                         String secret, long reconnectMs) {
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.reconnectMs = reconnectMs;
+        for (InetSocketAddress peer : peers) {
+            links.add(new PeerLink(peer));
+        }
+    }
+
+    /**
+     * разбирает список адресов вида {@code host:port,host:port}.
+     * Некорректные адреса пропускаются.
+     * @param peers список адресов
+     * @return адреса без разрешения имен
+     */
+    public static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            int colon = peer.lastIndexOf(':');
+            try {
+                if (peer.isEmpty()) {
+                    continue;
+                }
+                addresses.add(InetSocketAddress.createUnresolved(peer.substring(0, colon),
+                        Integer.parseInt(peer.substring(colon + 1))));
+            } catch (RuntimeException e) {
+                System.err.println("Некорректный адрес узла кластера: " + peer);
+            }
+        }
+        return addresses;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        try {
+            serverSocket = new ServerSocket(port, 50, InetAddress.getByName(bindAddress));
+        } catch (IOException e) {
+            System.err.println("Ошибка запуска шины кластера на " + bindAddress + ":" + port + ": " + e);
+            return;
+        }
+        Thread.ofVirtual().name("cluster-accept").start(this::acceptLoop);
+        for (PeerLink link : links) {
+            link.thread = Thread.ofVirtual().name("cluster-out-" + link).start(link::run);
+        }
+        System.out.println("Узел " + nodeId + " кластера слушает " + bindAddress + ":" + port +
+                ", узлов в списке: " + links.size());
+    }
+
+    @Override
+    public boolean publish(ClusterEvent event) {
+        boolean queued = true;
+        for (PeerLink link : links) {
+            queued &= link.offer(event);
+        }
+        return queued;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {}
+        for (PeerLink link : links) {
+            link.close();
+        }
+        for (Socket socket : inbound.values()) {
+            closeQuietly(socket);
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().name("cluster-in").start(() -> receive(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Ошибка приема подключения узла: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * принимает события одного узла до разрыва соединения
+     */
+    private void receive(Socket socket) {
+        String peerId = null;
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            ClusterEvent hello = ClusterEvent.readFrom(in, ServerConfig.MAX_FRAME_BYTES);
+            if (!ClusterEvent.HELLO.equals(hello.getType()) || hello.getOrigin().equals(nodeId) ||
+                    !MessageDigest.isEqual(secret, hello.getField(0).getBytes(StandardCharsets.UTF_8))) {
+                System.err.println("Отклонено подключение узла " + socket.getRemoteSocketAddress());
+                return;
+            }
+            socket.setSoTimeout(0);
+            peerId = hello.getOrigin();
+            // при переподключении узла прежнее соединение закрывается без вызова onNodeDown
+            Socket previous = inbound.put(peerId, socket);
+            if (previous != null) {
+                closeQuietly(previous);
+            }
+            System.out.println("Узел " + peerId + " подключился к шине кластера");
+
+            while (!closed) {
+                ClusterEvent event = ClusterEvent.readFrom(in, ServerConfig.MAX_FRAME_BYTES);
+                if (!event.getOrigin().equals(peerId)) {
+                    continue;
+                }
+                Metrics.CLUSTER.get("received").increment();
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException e) {
+                    Metrics.ERRORS.get("cluster").increment();
+                    System.err.println("Ошибка обработки события " + event + ": " + e);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            if (!closed && peerId != null) {
+                System.err.println("Связь с узлом " + peerId + " потеряна: " + e);
+            }
+        } finally {
+            if (peerId != null && inbound.remove(peerId, socket)) {
+                listener.onNodeDown(peerId);
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Исходящее соединение с одним узлом и его очередь событий.
+     */
+    private final class PeerLink {
+        private final InetSocketAddress address;
+        private final BlockingQueue<ClusterEvent> queue = new ArrayBlockingQueue<>(ServerConfig.OUTBOUND_QUEUE_SIZE);
+        private volatile boolean connected = false;
+        private volatile Socket socket;
+        private Thread thread;
+
+        PeerLink(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public String toString() {
+            return address.getHostString() + ":" + address.getPort();
+        }
+
+        boolean offer(ClusterEvent event) {
+            if (connected && queue.offer(event)) {
+                return true;
+            }
+            Metrics.CLUSTER.get("dropped").increment();
+            return false;
+        }
+
+        void run() {
+            boolean reported = false;
+            while (!closed) {
+                try (Socket s = new Socket()) {
+                    socket = s;
+                    s.connect(new InetSocketAddress(address.getHostString(), address.getPort()), HANDSHAKE_TIMEOUT_MS);
+                    s.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                    new ClusterEvent(ClusterEvent.HELLO, nodeId, new String(secret, StandardCharsets.UTF_8)).writeTo(out);
+
+                    // события, опубликованные после этой точки, идут в очередь и отправляются после снимка
+                    queue.clear();
+                    connected = true;
+                    for (ClusterEvent event : listener.onPeerConnected()) {
+                        event.writeTo(out);
+                    }
+                    out.flush();
+                    System.out.println("Подключено к узлу кластера " + this);
+                    reported = false;
+
+                    while (!closed) {
+                        ClusterEvent event = queue.take();
+                        event.writeTo(out);
+                        // сброс буфера откладывается, пока в очереди есть события
+                        if (queue.isEmpty()) {
+                            out.flush();
+                        }
+                        Metrics.CLUSTER.get("sent").increment();
+                    }
+                } catch (IOException e) {
+                    if (!closed && !reported) {
+                        System.err.println("Нет связи с узлом кластера " + this + ": " + e);
+                        reported = true;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    connected = false;
+                }
+
+                try {
+                    Thread.sleep(reconnectMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void close() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+            Socket s = socket;
+            if (s != null) {
+                closeQuietly(s);
+            }
+        }
+    }
+}